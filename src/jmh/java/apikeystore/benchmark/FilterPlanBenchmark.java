@@ -0,0 +1,257 @@
+package apikeystore.benchmark;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+
+import apikeystore.model.QKey;
+import apikeystore.repository.FilterPlan;
+
+// Building the query predicate of a collection filtering request: FilterPlan
+// against the predSetup() KeyController used before it (copied below as it was).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterPlanBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(FilterPlanBenchmark.class);
+
+	// typical: a user's keys created after some time, a page at a time.
+	// wide: most of the parameter kinds, including attributes and $in lists.
+	@Param({ "typical", "wide" })
+	public String shape;
+
+	private Map<String, String> requestParams;
+
+	@Setup
+	public void setup() {
+		requestParams = new LinkedHashMap<>();
+		requestParams.put("userId", "user-42*");
+		requestParams.put("created", "$gt:1520000000");
+		if (shape.equals("wide")) {
+			requestParams.put("agencyCode", "$in:AG1,AG2,AG3");
+			requestParams.put("attributesRegion", "east");
+			requestParams.put("clientId", "$exists:true");
+			requestParams.put("authTokenExpired", "false");
+			requestParams.put("refTokenExpiration", "$lt:1600000000");
+		}
+		requestParams.put("page", "0");
+		requestParams.put("size", "20");
+		requestParams.put("sortBy", "created");
+	}
+
+	@Benchmark
+	public Predicate filterPlan() {
+		return FilterPlan.build(requestParams);
+	}
+
+	@Benchmark
+	public Predicate predSetup() {
+		return predSetup(requestParams);
+	}
+
+	// Predicate predSetup(Map<String, String> requestParams)
+	// KeyController's filtering predicate construction before FilterPlan.
+	private static Predicate predSetup(Map<String, String> requestParams) {
+		QKey key = new QKey("key");
+		Predicate predicate = null;
+		BooleanExpression temp = null;
+		Long now = ((new Date().getTime()) / 1000);
+		String param;
+		String[] params;
+		String attKey;
+
+		if (requestParams == null || requestParams.isEmpty())
+			return predicate;
+
+		if (requestParams.containsKey("userId")) {
+			predicate = predBuildString(requestParams.get("userId"), predicate, key.userId);
+		}
+
+		if (requestParams.containsKey("clientId")) {
+			predicate = predBuildString(requestParams.get("clientId"), predicate, key.clientId);
+		}
+
+		for (Entry<String, String> entry : requestParams.entrySet()) {
+			attKey = entry.getKey();
+			if (attKey.startsWith("attributes")) {
+
+				param = entry.getValue();
+
+				attKey = attKey.replace("attributes", "");
+				char c[] = attKey.toCharArray();
+				c[0] = Character.toLowerCase(c[0]);
+				attKey = new String(c);
+
+				if (param.endsWith("*")) {
+					predicate = key.attributes.containsKey(attKey).and(key.attributes.get(attKey)
+							.containsIgnoreCase(param.substring(0, param.length() - 1)).and(predicate));
+				} else if (param.startsWith("$exists:true")) {
+					predicate = key.attributes.containsKey(attKey)
+							.and(key.attributes.get(attKey).isNotNull().and(predicate));
+				} else if (param.startsWith("$exists:false")) {
+					predicate = (key.attributes.get(attKey).isNull()).and(predicate);
+				} else if (param.startsWith("$in:")) {
+					param = param.substring(4, param.length());
+					params = param.split(",");
+					for (String i : params) {
+						temp = (key.attributes.containsKey(attKey).and(key.attributes.get(attKey).eq(i))).or(temp);
+					}
+					predicate = temp.and(predicate);
+					temp = null;
+				} else {
+					predicate = key.attributes.containsKey(attKey).and((key.attributes.get(attKey).eq(param)))
+							.and(predicate);
+				}
+			}
+		}
+
+		if (requestParams.containsKey("agencyCode")) {
+			param = requestParams.get("agencyCode");
+			if (param.endsWith("*")) {
+				predicate = key.attributes.containsKey("agencyCode").and(key.attributes.get("agencyCode")
+						.containsIgnoreCase(param.substring(0, param.length() - 1)).and(predicate));
+			} else if (param.startsWith("$exists:true")) {
+				predicate = key.attributes.containsKey("agencyCode")
+						.and(key.attributes.get("agencyCode").isNotNull().and(predicate));
+			} else if (param.startsWith("$exists:false")) {
+				predicate = (key.attributes.get("agencyCode").isNull()).and(predicate);
+			} else if (param.startsWith("$in:")) {
+				param = param.substring(4, param.length());
+				params = param.split(",");
+				for (String i : params) {
+					temp = (key.attributes.containsKey("agencyCode").and(key.attributes.get("agencyCode").eq(i)))
+							.or(temp);
+				}
+				predicate = temp.and(predicate);
+				temp = null;
+			} else {
+				predicate = key.attributes.containsKey("agencyCode").and((key.attributes.get("agencyCode").eq(param)))
+						.and(predicate);
+			}
+		}
+
+		if (requestParams.containsKey("created")) {
+			predicate = predBuildLong(requestParams.get("created"), predicate, key.created);
+		}
+
+		if (requestParams.containsKey("modified")) {
+			predicate = predBuildLong(requestParams.get("modified"), predicate, key.modified);
+		}
+
+		if (requestParams.containsKey("authTokenValue")) {
+			predicate = predBuildString(requestParams.get("authTokenValue"), predicate, key.authToken.value);
+		}
+
+		if (requestParams.containsKey("authTokenExpiration")) {
+			predicate = predBuildLong(requestParams.get("authTokenExpiration"), predicate, key.authToken.expiration);
+		}
+
+		if (requestParams.containsKey("authTokenExpired")) {
+			if (requestParams.get("authTokenExpired").toLowerCase().equals("true")) {
+				predicate = key.authToken.expiration.lt(now).and(predicate);
+			} else {
+				predicate = key.authToken.expiration.gt(now).and(predicate);
+			}
+		}
+
+		if (requestParams.containsKey("refTokenValue")) {
+			predicate = predBuildString(requestParams.get("refTokenValue"), predicate, key.refToken.value);
+		}
+
+		if (requestParams.containsKey("refTokenExpiration")) {
+			predicate = predBuildLong(requestParams.get("refTokenExpiration"), predicate, key.refToken.expiration);
+		}
+
+		if (requestParams.containsKey("refTokenExpired")) {
+			if (requestParams.get("refTokenExpired").toLowerCase().equals("true")) {
+				predicate = key.refToken.expiration.lt(now).and(predicate);
+			} else {
+				predicate = key.refToken.expiration.gt(now).and(predicate);
+			}
+		}
+
+		logger.debug("Query predicate constructed: {}", predicate);
+
+		return predicate;
+	}
+
+	private static Predicate predBuildString(String param, Predicate predicate, StringPath path) {
+		String[] params = null;
+		BooleanExpression temp = null;
+
+		if (param.endsWith("*")) {
+			predicate = path.containsIgnoreCase(param.substring(0, param.length() - 1)).and(predicate);
+		} else if (param.startsWith("$exists:true")) {
+			predicate = path.isNotNull().and(predicate);
+		} else if (param.startsWith("$exists:false")) {
+			predicate = path.isNull().and(predicate);
+		} else if (param.startsWith("$in:")) {
+			param = param.substring(4, param.length());
+			params = param.split(",");
+			for (String i : params) {
+				temp = path.eq(i).or(temp);
+			}
+			predicate = temp.and(predicate);
+			temp = null;
+		} else {
+			predicate = path.eq(param).and(predicate);
+		}
+
+		return predicate;
+	}
+
+	private static Predicate predBuildLong(String param, Predicate predicate, NumberPath<Long> path) {
+		String[] params = null;
+		BooleanExpression temp = null;
+
+		if (param.startsWith("$gt:")) {
+			predicate = path.gt(Long.parseLong(param.substring(4, param.length()))).and(predicate);
+		} else if (param.startsWith("$lt:")) {
+			predicate = path.lt(Long.parseLong(param.substring(4, param.length()))).and(predicate);
+		} else if (param.startsWith("$eq:")) {
+			predicate = path.eq(Long.parseLong(param.substring(4, param.length()))).and(predicate);
+		} else if (param.startsWith("$exists:true")) {
+			predicate = path.isNotNull().and(predicate);
+		} else if (param.startsWith("$exists:false")) {
+			predicate = path.isNull().and(predicate);
+		} else if (param.startsWith("$in:")) {
+			param = param.substring(4, param.length());
+			params = param.split(",");
+			for (String i : params) {
+				long j = Long.parseLong(i);
+				temp = path.eq(j).or(temp);
+			}
+			predicate = temp.and(predicate);
+			temp = null;
+		} else {
+			predicate = path.eq(Long.parseLong(param)).and(predicate);
+		}
+
+		return predicate;
+	}
+}
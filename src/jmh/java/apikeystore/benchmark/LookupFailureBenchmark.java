@@ -0,0 +1,172 @@
+package apikeystore.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.controller.KeyController;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+import apikeystore.repository.KeyRepository;
+
+// The failure paths of authenticateToken and find, which end in an exception
+// rather than a response: the key isn't found (miss), its access token has
+// expired (expired), or both its tokens have (gone). Run with -prof gc to see
+// what each path allocates.
+//
+// The repository is a stub that returns the key of the selected path, and the
+// controller's other collaborators are plain instances wired by field name
+// (see setup()), so the benchmark needs nothing newer than the controller
+// itself.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupFailureBenchmark {
+
+	@Param({ "miss", "expired", "gone" })
+	public String path;
+
+	// The controller's collaborators used on these paths.
+	private static final List<String> COLLABORATORS = Arrays.asList("keyRepository", "config", "tokenCache",
+			"tokenFilter", "statelessTokens", "keyLookup");
+
+	private KeyController controller;
+
+	private Key key;
+
+	@Setup
+	public void setup() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		if (path.equals("expired")) {
+			key = key(now - 60, now + 3600);
+		} else if (path.equals("gone")) {
+			key = key(now - 60, now - 60);
+		}
+
+		YAMLConfig config = new YAMLConfig();
+		// Look keys up on the calling thread.
+		set(config, "lookupTimeoutMillis", 0L);
+
+		Map<Class<?>, Object> beans = new HashMap<>();
+		beans.put(YAMLConfig.class, config);
+		beans.put(KeyRepository.class, Proxy.newProxyInstance(KeyRepository.class.getClassLoader(),
+				new Class<?>[] { KeyRepository.class }, (proxy, method, args) -> {
+					if (method.getName().equals("findByAuthTokenValue") || method.getName().equals("findById")) {
+						return key;
+					}
+					return defaultValue(method.getReturnType());
+				}));
+
+		controller = new KeyController();
+		for (String name : COLLABORATORS) {
+			Field field = field(KeyController.class, name);
+			if (field != null) {
+				field.set(controller, bean(field.getType(), beans));
+			}
+		}
+	}
+
+	@Benchmark
+	public Object authenticateToken() {
+		try {
+			return controller.authenticateToken("benchmark-token");
+		} catch (Exception e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public Object find() {
+		try {
+			return controller.find("benchmark-user", "benchmark-client");
+		} catch (Exception e) {
+			return e;
+		}
+	}
+
+	private static Key key(long authExpiration, long refExpiration) {
+		Key key = new Key();
+		key.setAuthToken(new OAuth2AccessToken("benchmark-token", authExpiration, null));
+		key.setRefToken(new OAuth2RefreshToken("benchmark-refresh", refExpiration));
+		return key;
+	}
+
+	// Object bean(Class<?> type, Map<Class<?>, Object> beans)
+	// Returns the instance of the passed type, creating it (with its @Autowired
+	// fields wired the same way, and its @PostConstruct methods run) if there
+	// isn't one yet.
+	private static Object bean(Class<?> type, Map<Class<?>, Object> beans) throws Exception {
+		Object bean = beans.get(type);
+		if (bean != null) {
+			return bean;
+		}
+		bean = type.newInstance();
+		beans.put(type, bean);
+		for (Field field : type.getDeclaredFields()) {
+			if (field.isAnnotationPresent(Autowired.class) && beans.containsKey(field.getType())) {
+				field.setAccessible(true);
+				field.set(bean, beans.get(field.getType()));
+			}
+		}
+		for (Method method : type.getDeclaredMethods()) {
+			if (method.isAnnotationPresent(PostConstruct.class)) {
+				method.invoke(bean);
+			}
+		}
+		return bean;
+	}
+
+	private static Field field(Class<?> type, String name) {
+		for (Field field : type.getDeclaredFields()) {
+			if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+				field.setAccessible(true);
+				return field;
+			}
+		}
+		return null;
+	}
+
+	private static void set(Object target, String name, Object value) throws IllegalAccessException {
+		Field field = field(target.getClass(), name);
+		if (field != null) {
+			field.set(target, value);
+		}
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
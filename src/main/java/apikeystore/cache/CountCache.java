@@ -0,0 +1,55 @@
+package apikeystore.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import apikeystore.config.YAMLConfig;
+
+// Short-lived cache of total counts for list queries, by query. Lets list
+// requests that only need a rough total (total=cached) skip the count over every
+// matching document; the total may be up to countCacheSeconds out of date.
+@Component
+public class CountCache {
+
+	@Autowired
+	private YAMLConfig config;
+
+	// Bounded, since the queries come from request parameters.
+	private static final int MAX_ENTRIES = 1000;
+
+	private final ConcurrentHashMap<String, Entry> counts = new ConcurrentHashMap<>();
+
+	private static class Entry {
+		final long count;
+		final long expires;
+
+		Entry(long count, long expires) {
+			this.count = count;
+			this.expires = expires;
+		}
+	}
+
+	// long get(String query, LongSupplier counter)
+	// Returns the cached count for the passed query, running the counter if there
+	// is none or it has expired.
+	public long get(String query, LongSupplier counter) {
+		long now = System.currentTimeMillis();
+		Entry entry = counts.get(query);
+		if (entry != null && entry.expires > now) {
+			return entry.count;
+		}
+
+		long count = counter.getAsLong();
+		if (counts.size() >= MAX_ENTRIES) {
+			counts.entrySet().removeIf(e -> e.getValue().expires <= now);
+			if (counts.size() >= MAX_ENTRIES) {
+				counts.clear();
+			}
+		}
+		counts.put(query, new Entry(count, now + config.getCountCacheSeconds() * 1000L));
+		return count;
+	}
+}
@@ -0,0 +1,128 @@
+package apikeystore.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Counting Bloom filter over strings. Unlike a plain Bloom filter it supports
+// removal, so it can track a set that shrinks as well as grows. Each cell is an
+// 8-bit counter (four packed per int); a counter that reaches 255 sticks there
+// rather than overflowing, which can only ever cause false positives.
+// All operations are lock-free and safe for concurrent use.
+public class CountingBloomFilter {
+
+	private static final int SATURATED = 0xFF;
+
+	private final AtomicIntegerArray cells;
+	private final int numCounters;
+	private final int numHashes;
+
+	public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+		if (expectedInsertions <= 0) {
+			expectedInsertions = 1;
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1.");
+		}
+
+		// Standard sizing: m = -n ln(p) / (ln 2)^2, k = (m / n) ln 2.
+		long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64, Math.min(m, (long) Integer.MAX_VALUE - 3));
+		this.numCounters = (int) m;
+		this.numHashes = Math.max(1, (int) Math.round((double) m / expectedInsertions * Math.log(2)));
+		this.cells = new AtomicIntegerArray((numCounters + 3) / 4);
+	}
+
+	public void add(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; ++i) {
+			increment(index(h1, h2, i));
+		}
+	}
+
+	public void remove(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; ++i) {
+			decrement(index(h1, h2, i));
+		}
+	}
+
+	// boolean mightContain(String value)
+	// Returns false only if the value is definitely not in the set.
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; ++i) {
+			if (counter(index(h1, h2, i)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getNumCounters() {
+		return numCounters;
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	private int index(int h1, int h2, int i) {
+		int combined = h1 + i * h2;
+		return (combined & Integer.MAX_VALUE) % numCounters;
+	}
+
+	private int counter(int index) {
+		return (cells.get(index >>> 2) >>> ((index & 3) << 3)) & 0xFF;
+	}
+
+	private void increment(int index) {
+		int slot = index >>> 2;
+		int shift = (index & 3) << 3;
+		for (;;) {
+			int current = cells.get(slot);
+			int count = (current >>> shift) & 0xFF;
+			if (count == SATURATED) {
+				return;
+			}
+			if (cells.compareAndSet(slot, current, current + (1 << shift))) {
+				return;
+			}
+		}
+	}
+
+	private void decrement(int index) {
+		int slot = index >>> 2;
+		int shift = (index & 3) << 3;
+		for (;;) {
+			int current = cells.get(slot);
+			int count = (current >>> shift) & 0xFF;
+			if (count == 0 || count == SATURATED) {
+				return;
+			}
+			if (cells.compareAndSet(slot, current, current - (1 << shift))) {
+				return;
+			}
+		}
+	}
+
+	// 64-bit FNV-1a over the string's chars, finished with the MurmurHash3 mixer
+	// so both halves are usable as independent hashes.
+	private static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); ++i) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,215 @@
+package apikeystore.cache;
+
+// Hierarchical timing wheel over expiration times in epoch seconds. Scheduling
+// an expiration and firing one are both O(1): there are four levels of 64
+// slots, level k covering 64^k seconds per slot, and entries due far out are
+// moved down a level each time the level below wraps around, until they land
+// in a one-second slot and fire. Expirations beyond the top level's range
+// (about six months out) wait in the top level and are re-placed when it wraps.
+//
+// Entries can be cancelled in O(1) through the handle returned by schedule()
+// (each slot is a doubly linked list), so cancelled entries don't linger until
+// their expiration. Listeners should still check when an entry fires whether it
+// still applies, since it may race with a cancellation. Memory is bounded by
+// the maximum number of pending entries; each entry is a single small node.
+public class TimingWheel<T> {
+
+	// Called for each entry when its expiration time is reached.
+	public interface ExpiryListener<T> {
+		public void expired(T item, long expiration);
+	}
+
+	private static final int LEVELS = 4;
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+
+	// A scheduled entry, and the handle used to cancel it. Tracks the slot it is
+	// in (level -1 once it has fired or been cancelled).
+	public static final class Node<T> {
+		final T item;
+		final long expiration;
+		Node<T> next;
+		Node<T> prev;
+		int level = -1;
+		int index;
+
+		Node(T item, long expiration) {
+			this.item = item;
+			this.expiration = expiration;
+		}
+	}
+
+	private final Node<T>[][] slots;
+	private final int maxPending;
+
+	private long now;
+	private int pending = 0;
+	private long dropped = 0;
+
+	// TimingWheel(long now, int maxPending)
+	// Creates a wheel whose current time is 'now' (epoch seconds), holding at most
+	// maxPending entries.
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long now, int maxPending) {
+		this.now = now;
+		this.maxPending = maxPending;
+		this.slots = new Node[LEVELS][SLOTS];
+	}
+
+	// Node<T> schedule(T item, long expiration)
+	// Registers an entry to fire once the wheel reaches its expiration time (or
+	// on the next tick, if that has already passed). Returns its handle, or null,
+	// dropping the entry, if the wheel is full.
+	public synchronized Node<T> schedule(T item, long expiration) {
+		if (pending >= maxPending) {
+			++dropped;
+			return null;
+		}
+		++pending;
+		Node<T> node = new Node<T>(item, expiration);
+		place(node, Math.max(expiration, now + 1));
+		return node;
+	}
+
+	// boolean cancel(Node<T> node)
+	// Removes a pending entry, so it never fires. Returns false if it has already
+	// fired or been cancelled.
+	public synchronized boolean cancel(Node<T> node) {
+		if (node == null || node.level < 0) {
+			return false;
+		}
+		if (node.prev == null) {
+			slots[node.level][node.index] = node.next;
+		} else {
+			node.prev.next = node.next;
+		}
+		if (node.next != null) {
+			node.next.prev = node.prev;
+		}
+		node.next = null;
+		node.prev = null;
+		node.level = -1;
+		--pending;
+		return true;
+	}
+
+	// int advance(long to, ExpiryListener<T> listener)
+	// Moves the wheel forward to the passed time, one second at a time, firing
+	// every entry that expires on the way. Returns the number of entries fired.
+	public int advance(long to, ExpiryListener<T> listener) {
+		int fired = 0;
+		while (true) {
+			Node<T> due;
+			synchronized (this) {
+				if (now >= to) {
+					return fired;
+				}
+				due = tick();
+			}
+			// Listeners run outside the lock, so they may schedule new entries.
+			for (Node<T> node = due; node != null; node = node.next) {
+				listener.expired(node.item, node.expiration);
+				++fired;
+			}
+		}
+	}
+
+	// int size()
+	// Returns the number of entries waiting to fire.
+	public synchronized int size() {
+		return pending;
+	}
+
+	// long dropped()
+	// Returns the number of entries refused because the wheel was full.
+	public synchronized long dropped() {
+		return dropped;
+	}
+
+	// long now()
+	// Returns the wheel's current time.
+	public synchronized long now() {
+		return now;
+	}
+
+	// Node<T> tick()
+	// Advances the wheel by one second and returns the entries due at the new
+	// time, as a linked list.
+	private Node<T> tick() {
+		++now;
+
+		// Each time a level wraps, the next slot of the level above is spread out
+		// over the levels below it. Higher levels go first, as their entries may
+		// land in lower-level slots that are cascaded in the same tick.
+		int wrapped = 0;
+		while (wrapped + 1 < LEVELS && (now & ((1L << (BITS * (wrapped + 1))) - 1)) == 0) {
+			++wrapped;
+		}
+		for (int level = wrapped; level >= 1; --level) {
+			int index = (int) ((now >> (BITS * level)) & MASK);
+			Node<T> node = slots[level][index];
+			slots[level][index] = null;
+			while (node != null) {
+				Node<T> next = node.next;
+				node.prev = null;
+				place(node, Math.max(node.expiration, now));
+				node = next;
+			}
+		}
+
+		int index = (int) (now & MASK);
+		Node<T> node = slots[0][index];
+		slots[0][index] = null;
+
+		Node<T> due = null;
+		while (node != null) {
+			Node<T> next = node.next;
+			node.prev = null;
+			if (node.expiration <= now) {
+				node.level = -1;
+				node.next = due;
+				due = node;
+				--pending;
+			} else {
+				place(node, node.expiration);
+			}
+			node = next;
+		}
+		return due;
+	}
+
+	// void place(Node<T> node, long at)
+	// Puts a node in the slot covering time 'at' (which must not be before now)
+	// at the lowest level that can tell 'at' apart from now.
+	private void place(Node<T> node, long at) {
+		for (int level = 0; level < LEVELS - 1; ++level) {
+			int shift = BITS * (level + 1);
+			if ((at >> shift) == (now >> shift)) {
+				add(level, (int) ((at >> (BITS * level)) & MASK), node);
+				return;
+			}
+		}
+
+		// The top level has no level above it to wrap into, so it takes anything
+		// within its next SLOTS - 1 slots. Anything further out is parked in the
+		// slot that comes around last, to be re-placed then.
+		int shift = BITS * (LEVELS - 1);
+		if ((at >> shift) - (now >> shift) < SLOTS) {
+			add(LEVELS - 1, (int) ((at >> shift) & MASK), node);
+		} else {
+			add(LEVELS - 1, (int) (((now >> shift) - 1) & MASK), node);
+		}
+	}
+
+	private void add(int level, int index, Node<T> node) {
+		node.level = level;
+		node.index = index;
+		node.prev = null;
+		node.next = slots[level][index];
+		if (node.next != null) {
+			node.next.prev = node;
+		}
+		slots[level][index] = node;
+	}
+}
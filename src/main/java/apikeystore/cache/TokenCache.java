@@ -0,0 +1,299 @@
+package apikeystore.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import apikeystore.clock.Now;
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.repository.KeyChangeListener;
+
+// Bounded in-memory cache of validated keys, indexed by access token value.
+// Sits in front of the /keys/auth/{authValue} lookup so that repeat validations
+// of a live token are answered without a database round-trip. Entries are
+// evicted when their access token expires (tracked on a timing wheel, so no
+// scan is needed), and invalidated by the repository whenever the underlying
+// key is removed or replaced.
+//
+// If tokenCacheRevalidateSeconds is set, entries validated longer ago than that
+// are stale: they are no longer returned by get(), but getStale() still returns
+// them for a further tokenCacheGraceSeconds, so they can be served while they
+// are revalidated in the background (or while the database is unavailable).
+@Component
+public class TokenCache implements KeyChangeListener {
+
+	@Autowired
+	private YAMLConfig config;
+
+	// A cached key, when it was last validated against the repository, and its
+	// pending expiry (cancelled when the entry goes, so the wheel doesn't keep
+	// the token value until it would have expired).
+	private static final class Cached {
+		final Key key;
+		final long validated;
+		volatile TimingWheel.Node<String> expiry;
+
+		Cached(Key key, long validated) {
+			this.key = key;
+			this.validated = validated;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Cached> byToken = new ConcurrentHashMap<>();
+
+	// Secondary index (key ID -> access token value), used to invalidate entries
+	// when only the key itself is known.
+	private final ConcurrentHashMap<String, String> tokenById = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// Bumped on every invalidation. Lookups take a stamp before going to the
+	// database, and put() refuses to cache a result if an invalidation happened
+	// in between (otherwise a concurrently revoked key could be re-cached).
+	private final AtomicLong invalidations = new AtomicLong();
+
+	// Access token expirations of cached entries, by token value. Entries are
+	// unscheduled when they are removed some other way (see dropped()).
+	private TimingWheel<String> expiries;
+
+	@PostConstruct
+	public void init() {
+		expiries = new TimingWheel<String>(Now.seconds(), config.getExpiryWheelMaxPending());
+	}
+
+	// Key get(String authValue)
+	// Returns the cached key for the passed access token value, or null if the
+	// token isn't cached, its access token has expired, or it is stale.
+	public Key get(String authValue) {
+		Cached cached = live(authValue);
+		if (cached == null || isStale(cached)) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+		return cached.key;
+	}
+
+	// Key getStale(String authValue)
+	// Returns the cached key for the passed access token value if it is stale but
+	// still within its grace period (see above), or null otherwise.
+	public Key getStale(String authValue) {
+		Cached cached = live(authValue);
+		if (cached == null || !isStale(cached)) {
+			return null;
+		}
+
+		if (Now.seconds() - cached.validated > config.getTokenCacheRevalidateSeconds()
+				+ config.getTokenCacheGraceSeconds()) {
+			if (byToken.remove(authValue, cached)) {
+				tokenById.remove(cached.key.getId(), authValue);
+				dropped(cached);
+				evictions.incrementAndGet();
+			}
+			return null;
+		}
+
+		staleHits.incrementAndGet();
+		return cached.key;
+	}
+
+	// long stamp()
+	// Returns the current invalidation stamp, to be passed back to put().
+	public long stamp() {
+		return invalidations.get();
+	}
+
+	// void put(Key key, long stamp)
+	// Caches a key that was just validated against the repository, unless it has
+	// been invalidated since the passed stamp was taken. Re-caching a key marks it
+	// as validated now.
+	public void put(Key key, long stamp) {
+		int maxSize = config.getTokenCacheMaxSize();
+		if (maxSize <= 0 || key.getAuthToken().isExpired()) {
+			return;
+		}
+
+		if (byToken.size() >= maxSize) {
+			trim(maxSize);
+		}
+
+		String authValue = key.getAuthToken().getValue();
+		Cached cached = new Cached(key, Now.seconds());
+		// isExpired() turns true the second after the expiration.
+		cached.expiry = expiries.schedule(authValue, key.getAuthToken().getExpiration() + 1);
+		dropped(byToken.put(authValue, cached));
+		String previous = tokenById.put(key.getId(), authValue);
+		if (previous != null && !previous.equals(authValue)) {
+			dropped(byToken.remove(previous));
+		}
+
+		// Lost a race with an invalidation; back the entry out again.
+		if (invalidations.get() != stamp) {
+			if (byToken.remove(authValue, cached)) {
+				dropped(cached);
+			}
+			tokenById.remove(key.getId(), authValue);
+		}
+	}
+
+	// void expire()
+	// Evicts the entries whose access tokens have expired since the last call.
+	@Scheduled(fixedDelay = 1000)
+	public void expire() {
+		expiries.advance(Now.seconds(), (authValue, expiration) -> {
+			Cached cached = byToken.get(authValue);
+			if (cached != null && cached.key.getAuthToken().isExpired() && byToken.remove(authValue, cached)) {
+				tokenById.remove(cached.key.getId(), authValue);
+				evictions.incrementAndGet();
+			}
+		});
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		invalidate(key);
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		invalidate(key);
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		invalidations.incrementAndGet();
+		for (Key key : keys) {
+			String authValue = tokenById.remove(key.getId());
+			if (authValue != null) {
+				dropped(byToken.remove(authValue));
+			}
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		keysRemoved(keys);
+	}
+
+	@Override
+	public void keysCleared() {
+		clear();
+	}
+
+	// void invalidate(Key key)
+	// Removes any cached entry for the passed key (by ID and by token value).
+	public void invalidate(Key key) {
+		invalidations.incrementAndGet();
+		String authValue = tokenById.remove(key.getId());
+		if (authValue != null) {
+			dropped(byToken.remove(authValue));
+		}
+		if (key.getAuthToken() != null && key.getAuthToken().getValue() != null) {
+			dropped(byToken.remove(key.getAuthToken().getValue()));
+		}
+	}
+
+	// void invalidate(String authValue)
+	// Removes any cached entry for the passed access token value.
+	public void invalidate(String authValue) {
+		invalidations.incrementAndGet();
+		Cached cached = byToken.remove(authValue);
+		if (cached != null) {
+			tokenById.remove(cached.key.getId(), authValue);
+			dropped(cached);
+		}
+	}
+
+	// void clear()
+	// Drops every cached entry.
+	public void clear() {
+		invalidations.incrementAndGet();
+		Iterator<Cached> it = byToken.values().iterator();
+		while (it.hasNext()) {
+			Cached cached = it.next();
+			it.remove();
+			dropped(cached);
+		}
+		tokenById.clear();
+	}
+
+	// Map<String, Long> stats()
+	// Returns the current size and hit/miss/eviction counters of the cache.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("size", (long) byToken.size());
+		stats.put("maxSize", (long) config.getTokenCacheMaxSize());
+		stats.put("hits", hits.get());
+		stats.put("staleHits", staleHits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		stats.put("expiriesPending", (long) expiries.size());
+		stats.put("expiriesDropped", expiries.dropped());
+		return stats;
+	}
+
+	// Cached live(String authValue)
+	// Returns the entry for the passed access token value, evicting it if its
+	// access token has expired.
+	private Cached live(String authValue) {
+		Cached cached = byToken.get(authValue);
+		if (cached == null) {
+			return null;
+		}
+
+		if (cached.key.getAuthToken().isExpired()) {
+			if (byToken.remove(authValue, cached)) {
+				tokenById.remove(cached.key.getId(), authValue);
+				dropped(cached);
+				evictions.incrementAndGet();
+			}
+			return null;
+		}
+		return cached;
+	}
+
+	private boolean isStale(Cached cached) {
+		int revalidate = config.getTokenCacheRevalidateSeconds();
+		return revalidate > 0 && Now.seconds() - cached.validated > revalidate;
+	}
+
+	// void trim(int maxSize)
+	// Makes room for a new entry: drops arbitrary entries until the cache is back
+	// to 90% of its bound (so this isn't repeated on every put while the cache is
+	// full). Expired entries have already been evicted by expire().
+	private void trim(int maxSize) {
+		int target = maxSize - Math.max(1, maxSize / 10);
+
+		Iterator<Entry<String, Cached>> it = byToken.entrySet().iterator();
+		while (byToken.size() > target && it.hasNext()) {
+			Entry<String, Cached> entry = it.next();
+			it.remove();
+			tokenById.remove(entry.getValue().key.getId(), entry.getKey());
+			dropped(entry.getValue());
+			evictions.incrementAndGet();
+		}
+	}
+
+	// void dropped(Cached cached)
+	// Unschedules the expiry of an entry removed from the cache (if any).
+	private void dropped(Cached cached) {
+		if (cached != null) {
+			expiries.cancel(cached.expiry);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package apikeystore.cache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.repository.KeyChangeListener;
+
+// Negative-lookup filter over the access token values of every key in the
+// repository. Lets the token endpoints reject unknown or long-revoked tokens
+// without a database query. Built from the collection once the application is
+// up and kept current through repository change notifications.
+@Component
+public class TokenFilter implements KeyChangeListener {
+
+	@Autowired
+	private MongoTemplate mongoOps;
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(TokenFilter.class);
+
+	private volatile CountingBloomFilter filter;
+
+	// Until the initial build has finished every lookup passes through, and
+	// removals are ignored: decrementing counters for a token the build hasn't
+	// counted yet could otherwise zero out a live token's cells.
+	private volatile boolean ready = false;
+
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong passed = new AtomicLong();
+
+	// void build()
+	// Populates the filter from the access token values currently in the
+	// repository.
+	@EventListener(ApplicationReadyEvent.class)
+	public void build() {
+		if (!config.isTokenFilterEnabled()) {
+			logger.info("Token filter disabled.");
+			return;
+		}
+
+		filter = new CountingBloomFilter(config.getTokenFilterExpectedTokens(),
+				config.getTokenFilterFalsePositiveRate());
+
+		Query query = new Query();
+		query.fields().include("authToken.value");
+		long count = 0;
+		try (CloseableIterator<Key> it = mongoOps.stream(query, Key.class)) {
+			while (it.hasNext()) {
+				Key key = it.next();
+				if (key.getAuthToken() != null && key.getAuthToken().getValue() != null) {
+					filter.add(key.getAuthToken().getValue());
+					++count;
+				}
+			}
+		}
+
+		ready = true;
+		logger.info("Token filter built from {} access tokens ({} counters, {} hashes).", count,
+				filter.getNumCounters(), filter.getNumHashes());
+	}
+
+	// boolean mightContain(String authValue)
+	// Returns false only if no key in the repository has the passed access token
+	// value.
+	public boolean mightContain(String authValue) {
+		CountingBloomFilter current = filter;
+		if (!ready || current == null) {
+			return true;
+		}
+
+		if (current.mightContain(authValue)) {
+			passed.incrementAndGet();
+			return true;
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		CountingBloomFilter current = filter;
+		if (current != null && key.getAuthToken() != null && key.getAuthToken().getValue() != null) {
+			current.add(key.getAuthToken().getValue());
+		}
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		CountingBloomFilter current = filter;
+		if (ready && current != null && key.getAuthToken() != null && key.getAuthToken().getValue() != null) {
+			current.remove(key.getAuthToken().getValue());
+		}
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		for (Key key : keys) {
+			keyRemoved(key);
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		// Their counters may already have been decremented, and doing it twice
+		// could zero out a live token's cells; left as they are, they only cost
+		// false positives.
+	}
+
+	@Override
+	public void keysCleared() {
+		if (filter != null) {
+			filter = new CountingBloomFilter(config.getTokenFilterExpectedTokens(),
+					config.getTokenFilterFalsePositiveRate());
+		}
+	}
+
+	// Map<String, Long> stats()
+	// Returns the number of lookups rejected and passed through by the filter.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("enabled", (ready && filter != null) ? 1L : 0L);
+		stats.put("rejected", rejected.get());
+		stats.put("passed", passed.get());
+		return stats;
+	}
+}
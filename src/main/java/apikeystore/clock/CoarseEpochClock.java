@@ -0,0 +1,51 @@
+package apikeystore.clock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Clock whose time is refreshed from the system clock by a single background
+// ticker thread, so reading it is just a volatile read. It is never more than
+// one tick behind, which is well under the one-second resolution of the
+// timestamps it is used for.
+public class CoarseEpochClock implements EpochClock {
+
+	private final long tickMillis;
+
+	private volatile long seconds = System.currentTimeMillis() / 1000;
+
+	private ScheduledExecutorService ticker;
+
+	public CoarseEpochClock(long tickMillis) {
+		this.tickMillis = tickMillis;
+	}
+
+	@Override
+	public long now() {
+		return seconds;
+	}
+
+	// CoarseEpochClock start()
+	// Starts the ticker thread.
+	public synchronized CoarseEpochClock start() {
+		if (ticker == null) {
+			ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "epoch-clock");
+				thread.setDaemon(true);
+				return thread;
+			});
+			ticker.scheduleAtFixedRate(() -> seconds = System.currentTimeMillis() / 1000, tickMillis, tickMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	// void stop()
+	// Stops the ticker thread.
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+	}
+}
@@ -0,0 +1,8 @@
+package apikeystore.clock;
+
+// Source of the current time, in epoch seconds (the unit of every key and token
+// timestamp).
+public interface EpochClock {
+
+	public long now();
+}
@@ -0,0 +1,29 @@
+package apikeystore.clock;
+
+// Holder for the clock used wherever the current time is read, including the
+// model classes (which aren't Spring beans and so can't have it injected).
+// Defaults to the system clock; the application installs a coarse clock at
+// startup (see ClockConfig), and tests can install a manual one.
+public final class Now {
+
+	private static volatile EpochClock clock = SystemEpochClock.INSTANCE;
+
+	private Now() {
+	}
+
+	// long seconds()
+	// Returns the current time in epoch seconds.
+	public static long seconds() {
+		return clock.now();
+	}
+
+	// void use(EpochClock clock)
+	// Installs the clock to be used from now on.
+	public static void use(EpochClock clock) {
+		Now.clock = clock;
+	}
+
+	public static EpochClock clock() {
+		return clock;
+	}
+}
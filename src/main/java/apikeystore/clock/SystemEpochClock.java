@@ -0,0 +1,12 @@
+package apikeystore.clock;
+
+// Reads the system clock on every call.
+public class SystemEpochClock implements EpochClock {
+
+	public static final SystemEpochClock INSTANCE = new SystemEpochClock();
+
+	@Override
+	public long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+}
@@ -0,0 +1,42 @@
+package apikeystore.config;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import apikeystore.clock.CoarseEpochClock;
+import apikeystore.clock.EpochClock;
+import apikeystore.clock.Now;
+import apikeystore.clock.SystemEpochClock;
+
+@Configuration
+public class ClockConfig {
+
+	@Autowired
+	private YAMLConfig config;
+
+	private CoarseEpochClock coarseClock;
+
+	// Installs the application clock: one refreshed by a ticker thread every
+	// clockTickMillis milliseconds, or the system clock if that is 0.
+	@Bean
+	public EpochClock epochClock() {
+		EpochClock clock = SystemEpochClock.INSTANCE;
+		if (config.getClockTickMillis() > 0) {
+			coarseClock = new CoarseEpochClock(config.getClockTickMillis()).start();
+			clock = coarseClock;
+		}
+		Now.use(clock);
+		return clock;
+	}
+
+	@PreDestroy
+	public void stopClock() {
+		if (coarseClock != null) {
+			Now.use(SystemEpochClock.INSTANCE);
+			coarseClock.stop();
+		}
+	}
+}
@@ -11,6 +11,89 @@ public class YAMLConfig {
 
 	private String jwtSigningKey;
 
+	// Maximum number of validated access tokens held in memory (0 disables the
+	// token cache).
+	private int tokenCacheMaxSize = 100000;
+
+	// Maximum number of pending token expirations tracked for cache eviction.
+	private int expiryWheelMaxPending = 200000;
+
+	// Negative-lookup filter over live access token values. Only safe to enable
+	// when this instance sees every write to the collection.
+	private boolean tokenFilterEnabled = false;
+
+	private long tokenFilterExpectedTokens = 1000000;
+
+	private double tokenFilterFalsePositiveRate = 0.01;
+
+	// How long a total count is reused by list requests made with total=cached.
+	private int countCacheSeconds = 60;
+
+	// Ensure the key indexes (and check the query shapes they back) at startup.
+	// The lower-cased search fields are backfilled either way.
+	private boolean indexManagementEnabled = true;
+
+	// Background removal of keys whose tokens have both expired. The interval is
+	// also read directly by the sweeper's schedule.
+	private boolean sweeperEnabled = true;
+
+	private int sweeperIntervalSeconds = 60;
+
+	private int sweeperBatchSize = 1000;
+
+	// How often the current time (in epoch seconds) is refreshed. 0 reads the
+	// system clock on every call instead.
+	private long clockTickMillis = 100;
+
+	// Fraction (0 to 1) of JWT responses that are decoded again to check them
+	// before they are returned.
+	private double jwtVerifySampleRate = 0;
+
+	// Maximum number of signed key JWTs kept for the JWT lookup endpoints. 0
+	// disables the cache.
+	private int jwtCacheMaxSize = 100000;
+
+	// Issue access tokens as signed JWTs that can be validated without a lookup,
+	// with an in-memory list of the ones revoked before they expire.
+	private boolean statelessTokensEnabled = false;
+
+	private int revocationListMaxSize = 100000;
+
+	// Number of revocations kept for polling through /keys/revocations (in a
+	// capped collection shared by every instance, sized when first created).
+	private int revocationFeedSize = 100000;
+
+	// Share key changes with the other keystore instances using the same database
+	// (through a capped collection of this size), so their in-memory structures
+	// stay current.
+	private boolean eventLogEnabled = false;
+
+	private int eventLogSizeBytes = 16777216;
+
+	// Token validation lookups: per-call timeout, lookup threads, and circuit
+	// breaker (consecutive failures before it opens, and for how long).
+	private long lookupTimeoutMillis = 2000;
+
+	private int lookupThreads = 32;
+
+	private int lookupFailureThreshold = 5;
+
+	private long lookupOpenMillis = 5000;
+
+	// Age after which a token cache entry is revalidated in the background (0
+	// never revalidates), and how much longer it may be served while that hasn't
+	// succeeded.
+	private int tokenCacheRevalidateSeconds = 0;
+
+	private int tokenCacheGraceSeconds = 300;
+
+	// Maximum number of access token values accepted by one
+	// /keys/auth/batch request.
+	private int authBatchMaxSize = 1000;
+
+	// Maximum number of keys accepted by one /keys/batch or /keys/find request.
+	private int keyBatchMaxSize = 1000;
+
 	public void setJwtSigningKey(String jwtSigningKey) {
 		this.jwtSigningKey = jwtSigningKey;
 	}
@@ -18,4 +101,212 @@ public class YAMLConfig {
 	public String getJwtSigningKey() {
 		return this.jwtSigningKey;
 	}
+
+	public void setTokenCacheMaxSize(int tokenCacheMaxSize) {
+		this.tokenCacheMaxSize = tokenCacheMaxSize;
+	}
+
+	public int getTokenCacheMaxSize() {
+		return this.tokenCacheMaxSize;
+	}
+
+	public void setExpiryWheelMaxPending(int expiryWheelMaxPending) {
+		this.expiryWheelMaxPending = expiryWheelMaxPending;
+	}
+
+	public int getExpiryWheelMaxPending() {
+		return this.expiryWheelMaxPending;
+	}
+
+	public void setTokenFilterEnabled(boolean tokenFilterEnabled) {
+		this.tokenFilterEnabled = tokenFilterEnabled;
+	}
+
+	public boolean isTokenFilterEnabled() {
+		return this.tokenFilterEnabled;
+	}
+
+	public void setTokenFilterExpectedTokens(long tokenFilterExpectedTokens) {
+		this.tokenFilterExpectedTokens = tokenFilterExpectedTokens;
+	}
+
+	public long getTokenFilterExpectedTokens() {
+		return this.tokenFilterExpectedTokens;
+	}
+
+	public void setTokenFilterFalsePositiveRate(double tokenFilterFalsePositiveRate) {
+		this.tokenFilterFalsePositiveRate = tokenFilterFalsePositiveRate;
+	}
+
+	public double getTokenFilterFalsePositiveRate() {
+		return this.tokenFilterFalsePositiveRate;
+	}
+
+	public void setCountCacheSeconds(int countCacheSeconds) {
+		this.countCacheSeconds = countCacheSeconds;
+	}
+
+	public int getCountCacheSeconds() {
+		return this.countCacheSeconds;
+	}
+
+	public void setIndexManagementEnabled(boolean indexManagementEnabled) {
+		this.indexManagementEnabled = indexManagementEnabled;
+	}
+
+	public boolean isIndexManagementEnabled() {
+		return this.indexManagementEnabled;
+	}
+
+	public void setSweeperEnabled(boolean sweeperEnabled) {
+		this.sweeperEnabled = sweeperEnabled;
+	}
+
+	public boolean isSweeperEnabled() {
+		return this.sweeperEnabled;
+	}
+
+	public void setSweeperIntervalSeconds(int sweeperIntervalSeconds) {
+		this.sweeperIntervalSeconds = sweeperIntervalSeconds;
+	}
+
+	public int getSweeperIntervalSeconds() {
+		return this.sweeperIntervalSeconds;
+	}
+
+	public void setSweeperBatchSize(int sweeperBatchSize) {
+		this.sweeperBatchSize = sweeperBatchSize;
+	}
+
+	public int getSweeperBatchSize() {
+		return this.sweeperBatchSize;
+	}
+
+	public void setClockTickMillis(long clockTickMillis) {
+		this.clockTickMillis = clockTickMillis;
+	}
+
+	public long getClockTickMillis() {
+		return this.clockTickMillis;
+	}
+
+	public void setJwtVerifySampleRate(double jwtVerifySampleRate) {
+		this.jwtVerifySampleRate = jwtVerifySampleRate;
+	}
+
+	public double getJwtVerifySampleRate() {
+		return this.jwtVerifySampleRate;
+	}
+
+	public void setJwtCacheMaxSize(int jwtCacheMaxSize) {
+		this.jwtCacheMaxSize = jwtCacheMaxSize;
+	}
+
+	public int getJwtCacheMaxSize() {
+		return this.jwtCacheMaxSize;
+	}
+
+	public void setStatelessTokensEnabled(boolean statelessTokensEnabled) {
+		this.statelessTokensEnabled = statelessTokensEnabled;
+	}
+
+	public boolean isStatelessTokensEnabled() {
+		return this.statelessTokensEnabled;
+	}
+
+	public void setRevocationListMaxSize(int revocationListMaxSize) {
+		this.revocationListMaxSize = revocationListMaxSize;
+	}
+
+	public int getRevocationListMaxSize() {
+		return this.revocationListMaxSize;
+	}
+
+	public void setRevocationFeedSize(int revocationFeedSize) {
+		this.revocationFeedSize = revocationFeedSize;
+	}
+
+	public int getRevocationFeedSize() {
+		return this.revocationFeedSize;
+	}
+
+	public void setEventLogEnabled(boolean eventLogEnabled) {
+		this.eventLogEnabled = eventLogEnabled;
+	}
+
+	public boolean isEventLogEnabled() {
+		return this.eventLogEnabled;
+	}
+
+	public void setEventLogSizeBytes(int eventLogSizeBytes) {
+		this.eventLogSizeBytes = eventLogSizeBytes;
+	}
+
+	public int getEventLogSizeBytes() {
+		return this.eventLogSizeBytes;
+	}
+
+	public void setLookupTimeoutMillis(long lookupTimeoutMillis) {
+		this.lookupTimeoutMillis = lookupTimeoutMillis;
+	}
+
+	public long getLookupTimeoutMillis() {
+		return this.lookupTimeoutMillis;
+	}
+
+	public void setLookupThreads(int lookupThreads) {
+		this.lookupThreads = lookupThreads;
+	}
+
+	public int getLookupThreads() {
+		return this.lookupThreads;
+	}
+
+	public void setLookupFailureThreshold(int lookupFailureThreshold) {
+		this.lookupFailureThreshold = lookupFailureThreshold;
+	}
+
+	public int getLookupFailureThreshold() {
+		return this.lookupFailureThreshold;
+	}
+
+	public void setLookupOpenMillis(long lookupOpenMillis) {
+		this.lookupOpenMillis = lookupOpenMillis;
+	}
+
+	public long getLookupOpenMillis() {
+		return this.lookupOpenMillis;
+	}
+
+	public void setTokenCacheRevalidateSeconds(int tokenCacheRevalidateSeconds) {
+		this.tokenCacheRevalidateSeconds = tokenCacheRevalidateSeconds;
+	}
+
+	public int getTokenCacheRevalidateSeconds() {
+		return this.tokenCacheRevalidateSeconds;
+	}
+
+	public void setTokenCacheGraceSeconds(int tokenCacheGraceSeconds) {
+		this.tokenCacheGraceSeconds = tokenCacheGraceSeconds;
+	}
+
+	public int getTokenCacheGraceSeconds() {
+		return this.tokenCacheGraceSeconds;
+	}
+
+	public void setAuthBatchMaxSize(int authBatchMaxSize) {
+		this.authBatchMaxSize = authBatchMaxSize;
+	}
+
+	public int getAuthBatchMaxSize() {
+		return this.authBatchMaxSize;
+	}
+
+	public void setKeyBatchMaxSize(int keyBatchMaxSize) {
+		this.keyBatchMaxSize = keyBatchMaxSize;
+	}
+
+	public int getKeyBatchMaxSize() {
+		return this.keyBatchMaxSize;
+	}
 }
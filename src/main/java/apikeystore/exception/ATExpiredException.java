@@ -11,4 +11,12 @@ public class ATExpiredException extends Exception {
 	 */
 	private static final long serialVersionUID = 2740257484045313173L;
 
+	// Expired access tokens are an expected outcome, not an error; no stack trace
+	// is captured and a single instance is reused.
+	public static final ATExpiredException INSTANCE = new ATExpiredException();
+
+	public ATExpiredException() {
+		super(null, null, false, false);
+	}
+
 }
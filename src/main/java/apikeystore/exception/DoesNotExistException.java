@@ -11,4 +11,11 @@ public class DoesNotExistException extends RuntimeException {
 	 */
 	private static final long serialVersionUID = 8855213053645838143L;
 
+	// Stackless shared instance, thrown on every lookup miss.
+	public static final DoesNotExistException INSTANCE = new DoesNotExistException();
+
+	public DoesNotExistException() {
+		super(null, null, false, false);
+	}
+
 }
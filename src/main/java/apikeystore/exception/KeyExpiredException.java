@@ -11,4 +11,11 @@ public class KeyExpiredException extends Exception {
 	 */
 	private static final long serialVersionUID = 8458142112948861010L;
 
+	// Stackless shared instance (see TokenDoesNotExistException).
+	public static final KeyExpiredException INSTANCE = new KeyExpiredException();
+
+	public KeyExpiredException() {
+		super(null, null, false, false);
+	}
+
 }
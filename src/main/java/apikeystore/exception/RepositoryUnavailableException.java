@@ -0,0 +1,22 @@
+package apikeystore.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "The key repository is not responding; please try again shortly.")
+public class RepositoryUnavailableException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2270486718318407745L;
+
+	// Thrown on every request while the repository is down, so the exception is
+	// stackless and shared rather than built per request.
+	public static final RepositoryUnavailableException INSTANCE = new RepositoryUnavailableException();
+
+	public RepositoryUnavailableException() {
+		super(null, null, false, false);
+	}
+
+}
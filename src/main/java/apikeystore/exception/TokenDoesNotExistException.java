@@ -11,4 +11,12 @@ public class TokenDoesNotExistException extends RuntimeException {
 	 */
 	private static final long serialVersionUID = 8123391956354062059L;
 
+	// Unknown token values are the common case for junk traffic, so the exception
+	// is stackless and shared rather than built per request.
+	public static final TokenDoesNotExistException INSTANCE = new TokenDoesNotExistException();
+
+	public TokenDoesNotExistException() {
+		super(null, null, false, false);
+	}
+
 }
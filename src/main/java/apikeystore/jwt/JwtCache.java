@@ -0,0 +1,159 @@
+package apikeystore.jwt;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.repository.KeyChangeListener;
+
+// Bounded in-memory cache of the signed JWT representation of each key, by key
+// ID. A key's JWT only changes when the key is written (which bumps modified,
+// and on refresh replaces the access token) or when one of its tokens expires
+// (the expired flags are claims), so a cached JWT is served only while all of
+// those still match the key just read. Entries are also dropped whenever the
+// repository writes or removes the key.
+@Component
+public class JwtCache implements KeyChangeListener {
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static class Entry {
+		final long modified;
+		final String authValue;
+		final boolean authTokenExpired;
+		final boolean refTokenExpired;
+		final String jwt;
+
+		Entry(Key key, String jwt) {
+			this.modified = key.getModified();
+			this.authValue = key.getAuthToken().getValue();
+			this.authTokenExpired = key.getAuthToken().isExpired();
+			this.refTokenExpired = key.getRefToken().isExpired();
+			this.jwt = jwt;
+		}
+
+		boolean matches(Key key) {
+			return modified == key.getModified() && authValue.equals(key.getAuthToken().getValue())
+					&& authTokenExpired == key.getAuthToken().isExpired()
+					&& refTokenExpired == key.getRefToken().isExpired();
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> byId = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// Bumped on every invalidation, as in TokenCache: put() refuses to cache a JWT
+	// built from a key read before a concurrent write.
+	private final AtomicLong invalidations = new AtomicLong();
+
+	// String get(Key key)
+	// Returns the cached JWT for the passed key, or null if there is none for this
+	// version of it.
+	public String get(Key key) {
+		Entry entry = byId.get(key.getId());
+		if (entry == null || !entry.matches(key)) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.jwt;
+	}
+
+	// long stamp()
+	// Returns the current invalidation stamp, to be passed back to put().
+	public long stamp() {
+		return invalidations.get();
+	}
+
+	// void put(Key key, String jwt, long stamp)
+	// Caches the JWT built from a key, unless the key has been invalidated since
+	// the passed stamp was taken (before the key was read).
+	public void put(Key key, String jwt, long stamp) {
+		int maxSize = config.getJwtCacheMaxSize();
+		if (maxSize <= 0 || key.getAuthToken().getValue() == null || key.getRefToken() == null) {
+			return;
+		}
+
+		if (byId.size() >= maxSize) {
+			trim(maxSize);
+		}
+
+		Entry entry = new Entry(key, jwt);
+		byId.put(key.getId(), entry);
+
+		// Lost a race with an invalidation; back the entry out again.
+		if (invalidations.get() != stamp) {
+			byId.remove(key.getId(), entry);
+		}
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		invalidate(key);
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		invalidate(key);
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		invalidations.incrementAndGet();
+		for (Key key : keys) {
+			byId.remove(key.getId());
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		keysRemoved(keys);
+	}
+
+	@Override
+	public void keysCleared() {
+		invalidations.incrementAndGet();
+		byId.clear();
+	}
+
+	// void invalidate(Key key)
+	// Removes any cached JWT for the passed key.
+	public void invalidate(Key key) {
+		invalidations.incrementAndGet();
+		byId.remove(key.getId());
+	}
+
+	// Map<String, Long> stats()
+	// Returns the current size and hit/miss counters of the cache.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("size", (long) byId.size());
+		stats.put("maxSize", (long) config.getJwtCacheMaxSize());
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		return stats;
+	}
+
+	// void trim(int maxSize)
+	// Makes room for a new entry by dropping arbitrary entries until the cache is
+	// back to 90% of its bound.
+	private void trim(int maxSize) {
+		int target = maxSize - Math.max(1, maxSize / 10);
+		Iterator<String> it = byId.keySet().iterator();
+		while (byId.size() > target && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package apikeystore.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import apikeystore.clock.Now;
+import apikeystore.config.YAMLConfig;
+
+// Signs and verifies the JWTs used by the /keys/jwt endpoints with the
+// configured signing key. The HMAC key is derived from the configuration once,
+// at startup, and the parser is configured once and shared (it isn't modified
+// after that, so it is safe to use from any thread). Builders aren't, so each
+// call gets a new one with the key already applied.
+//
+// The codec checks at startup that what it signs verifies; responses are only
+// re-verified for a sample of requests (jwtVerifySampleRate), so normally each
+// response is signed exactly once.
+@Component
+public class JwtCodec {
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final SignatureAlgorithm ALGORITHM = SignatureAlgorithm.HS256;
+
+	private static final String SELF_CHECK_ID = "jwt-codec-self-check";
+
+	private SecretKeySpec signingKey;
+
+	private JwtParser parser;
+
+	@PostConstruct
+	public void init() {
+		if (config.getJwtSigningKey() == null || config.getJwtSigningKey().isEmpty()) {
+			throw new IllegalStateException("jwtSigningKey must be configured.");
+		}
+		signingKey = new SecretKeySpec(config.getJwtSigningKey().getBytes(StandardCharsets.UTF_8),
+				ALGORITHM.getJcaName());
+		// Expirations are checked against the application clock.
+		parser = Jwts.parser().setSigningKey(signingKey).setClock(() -> new Date(Now.seconds() * 1000));
+
+		if (!verify(builder().setId(SELF_CHECK_ID).compact(), SELF_CHECK_ID)) {
+			throw new IllegalStateException("JWT self-check failed: a signed token did not verify.");
+		}
+	}
+
+	// JwtBuilder builder()
+	// Returns a new builder that signs with the configured key.
+	public JwtBuilder builder() {
+		return Jwts.builder().signWith(ALGORITHM, signingKey);
+	}
+
+	// Claims parse(String jwt)
+	// Verifies the signature of a signed JWT and returns its claims. Throws the
+	// parser's (unchecked) exceptions if it is malformed, expired, or signed with a
+	// different key.
+	public Claims parse(String jwt) {
+		return parser.parseClaimsJws(jwt).getBody();
+	}
+
+	// Claims claims(String jwt)
+	// As parse(), but also returns the claims of an expired JWT. Returns null if
+	// the JWT is malformed or its signature doesn't match.
+	public Claims claims(String jwt) {
+		try {
+			return parse(jwt);
+		} catch (ExpiredJwtException e) {
+			// Only thrown once the signature has been checked.
+			return e.getClaims();
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	// boolean verify(String jwt, String id)
+	// Checks that a JWT this codec signed verifies and carries the passed ID.
+	// Expiry is ignored, since the key JWTs carry a fixed, past expiration.
+	public boolean verify(String jwt, String id) {
+		Claims claims = claims(jwt);
+		return claims != null && id.equals(claims.getId());
+	}
+
+	// boolean sampled()
+	// Returns whether the current response should be re-verified, for the
+	// configured fraction of calls.
+	public boolean sampled() {
+		double rate = config.getJwtVerifySampleRate();
+		return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+	}
+}
@@ -0,0 +1,84 @@
+package apikeystore.jwt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import apikeystore.clock.Now;
+import apikeystore.config.YAMLConfig;
+
+// Stateless access tokens that have been revoked before their expiration (their
+// key was removed, replaced or refreshed), by token ID. An entry is only needed
+// until the token expires, after which it is purged.
+//
+// Besides individual tokens, every token issued up to a point in time can be
+// revoked at once. This happens at startup (revocations from before a restart
+// aren't kept), when the collection is dropped, and when the list outgrows
+// revocationListMaxSize. Tokens revoked that way are simply no longer validated
+// locally, and fall back to the repository lookup.
+@Component
+public class RevocationList {
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(RevocationList.class);
+
+	// Token ID -> token expiration.
+	private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+
+	// Tokens issued at or before this time (epoch seconds) are all revoked.
+	private volatile long revokedThrough = Now.seconds();
+
+	// void revoke(String id, long expiration)
+	// Revokes a single token, unless it has already expired.
+	public void revoke(String id, long expiration) {
+		if (expiration < Now.seconds()) {
+			return;
+		}
+		if (revoked.size() >= config.getRevocationListMaxSize()) {
+			logger.warn("Revocation list full ({} entries); revoking all tokens issued so far.", revoked.size());
+			revokeAll();
+			return;
+		}
+		revoked.put(id, expiration);
+	}
+
+	// void revokeAll()
+	// Revokes every token issued up to now.
+	public void revokeAll() {
+		revokedThrough = Now.seconds();
+		revoked.clear();
+	}
+
+	// boolean isRevoked(String id, long issuedAt)
+	// Returns whether the token with the passed ID and issue time was revoked.
+	public boolean isRevoked(String id, long issuedAt) {
+		return issuedAt <= revokedThrough || revoked.containsKey(id);
+	}
+
+	// void purge()
+	// Drops the entries for tokens that have expired since they were revoked.
+	@Scheduled(fixedDelay = 60000)
+	public void purge() {
+		long now = Now.seconds();
+		revoked.values().removeIf(expiration -> expiration < now);
+	}
+
+	// Map<String, Long> stats()
+	// Returns the number of revoked tokens listed, and the time up to which every
+	// token is revoked.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("size", (long) revoked.size());
+		stats.put("maxSize", (long) config.getRevocationListMaxSize());
+		stats.put("revokedThrough", revokedThrough);
+		return stats;
+	}
+}
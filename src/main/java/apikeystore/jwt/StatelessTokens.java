@@ -0,0 +1,141 @@
+package apikeystore.jwt;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.jsonwebtoken.Claims;
+
+import apikeystore.clock.Now;
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.Resource;
+import apikeystore.repository.KeyChangeListener;
+
+// Issues and validates self-validating (stateless) access tokens, when
+// statelessTokensEnabled is set. The token value is then a compact JWT signed
+// with the configured key, carrying:
+// - sub: user ID
+// - cid: client ID
+// - scope: the token scope (as resource/verbs objects)
+// - iat, exp: issue and expiration times (epoch seconds)
+// - jti: a random token ID
+// so anyone holding the signing key can validate it without calling the
+// keystore. The token is still stored with its key as usual, and the keystore
+// validates it locally too, checking the revocation list for tokens whose key
+// has since been removed, replaced or refreshed.
+@Component
+public class StatelessTokens implements KeyChangeListener {
+
+	@Autowired
+	private YAMLConfig config;
+
+	@Autowired
+	private JwtCodec jwtCodec;
+
+	@Autowired
+	private RevocationList revocations;
+
+	private static final Logger logger = LoggerFactory.getLogger(StatelessTokens.class);
+
+	// Token values are indexed, and MongoDB (before 4.2) refuses to index keys
+	// over 1024 bytes. Tokens that would come out longer than this (i.e. with a
+	// very large scope) are issued as opaque tokens instead.
+	static final int MAX_TOKEN_LENGTH = 1000;
+
+	// OAuth2AccessToken issue(String userId, String clientId, Set<Resource> scope)
+	// Creates a new access token: a stateless one if enabled, otherwise an
+	// opaque one.
+	public OAuth2AccessToken issue(String userId, String clientId, Set<Resource> scope) {
+		OAuth2AccessToken token = new OAuth2AccessToken(userId, scope);
+		if (!config.isStatelessTokensEnabled()) {
+			return token;
+		}
+
+		String jwt = jwtCodec.builder().setSubject(userId).claim("cid", clientId).claim("scope", scope)
+				.setIssuedAt(new Date(Now.seconds() * 1000)).setExpiration(new Date(token.getExpiration() * 1000))
+				.setId(UUID.randomUUID().toString()).compact();
+		if (jwt.length() > MAX_TOKEN_LENGTH) {
+			logger.warn("Stateless access token for {}__{} would be {} bytes; issuing an opaque token instead.",
+					userId, clientId, jwt.length());
+			return token;
+		}
+		return new OAuth2AccessToken(jwt, token.getExpiration(), scope);
+	}
+
+	// boolean isValid(String authValue)
+	// Returns true if the passed value is a stateless access token that is
+	// correctly signed, unexpired and not revoked. Returns false otherwise,
+	// including for opaque tokens, which have to be looked up.
+	public boolean isValid(String authValue) {
+		if (!config.isStatelessTokensEnabled() || !isStateless(authValue)) {
+			return false;
+		}
+
+		Claims claims;
+		try {
+			claims = jwtCodec.parse(authValue);
+		} catch (RuntimeException e) {
+			return false;
+		}
+		if (claims.getId() == null || claims.getIssuedAt() == null) {
+			return false;
+		}
+		return !revocations.isRevoked(claims.getId(), claims.getIssuedAt().getTime() / 1000);
+	}
+
+	// void revoke(String authValue)
+	// Adds a stateless access token to the revocation list (opaque tokens are
+	// ignored).
+	public void revoke(String authValue) {
+		if (!isStateless(authValue)) {
+			return;
+		}
+		Claims claims = jwtCodec.claims(authValue);
+		if (claims != null && claims.getId() != null && claims.getExpiration() != null) {
+			revocations.revoke(claims.getId(), claims.getExpiration().getTime() / 1000);
+		}
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		// A replaced key's old token is revoked through keyRemoved().
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		if (key.getAuthToken() != null) {
+			revoke(key.getAuthToken().getValue());
+		}
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		for (Key key : keys) {
+			keyRemoved(key);
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		keysRemoved(keys);
+	}
+
+	@Override
+	public void keysCleared() {
+		revocations.revokeAll();
+	}
+
+	// Opaque tokens are base64 with the '/' and '=' characters removed, so only
+	// JWTs contain dots.
+	private static boolean isStateless(String authValue) {
+		return authValue != null && authValue.indexOf('.') >= 0;
+	}
+}
@@ -0,0 +1,69 @@
+package apikeystore.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "Cursor Page", description = "One page of a keyset-paginated key listing")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CursorPage implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -3106578252913655148L;
+
+	@ApiModelProperty(value = "Keys (or projected key fields) on this page")
+	@JsonProperty("content")
+	private final List<?> content;
+
+	@ApiModelProperty(value = "Requested page size")
+	@JsonProperty("size")
+	private final int size;
+
+	@ApiModelProperty(value = "Cursor to pass as the 'after' parameter for the next page; absent on the last page")
+	@JsonProperty("next")
+	private final String next;
+
+	@ApiModelProperty(value = "Total number of matching keys; only present if requested with total=true")
+	@JsonProperty("totalElements")
+	private final Long totalElements;
+
+	public CursorPage(List<?> content, int size, String next, Long totalElements) {
+		this.content = content;
+		this.size = size;
+		this.next = next;
+		this.totalElements = totalElements;
+	}
+
+	public List<?> getContent() {
+		return content;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	@JsonProperty("numberOfElements")
+	public int getNumberOfElements() {
+		return content.size();
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	public Long getTotalElements() {
+		return totalElements;
+	}
+
+}
@@ -1,8 +1,8 @@
 package apikeystore.model;
 
 import java.io.Serializable;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.springframework.data.annotation.Id;
@@ -15,6 +15,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
+import apikeystore.clock.Now;
+
 @ApiModel(value = "Key", description = "User OAuth credentials information.")
 @Document(collection = "apikeystore")
 public class Key implements Serializable {
@@ -48,6 +50,20 @@ public class Key implements Serializable {
 	@ApiModelProperty(value = "Modified timestamp")
 	private long modified;
 
+	// Lower-cased copies of the user ID, client ID and attribute values, so that
+	// wildcard (prefix) filters can be case-insensitive and still use an index.
+	@ApiModelProperty(hidden = true)
+	@JsonIgnore
+	private String userIdLower;
+
+	@ApiModelProperty(hidden = true)
+	@JsonIgnore
+	private String clientIdLower;
+
+	@ApiModelProperty(hidden = true)
+	@JsonIgnore
+	private Map<String, String> attributesLower;
+
 	@JsonCreator
 	public Key(@JsonProperty("authToken") OAuth2AccessToken authToken,
 			@JsonProperty("refToken") OAuth2RefreshToken refToken, @JsonProperty("userId") String userId,
@@ -64,12 +80,15 @@ public class Key implements Serializable {
 			this.attributes = new HashMap<String, String>();
 			this.attributes.putAll(attributes);
 		}
+		this.userIdLower = lower(userId);
+		this.clientIdLower = lower(clientId);
+		this.attributesLower = lower(this.attributes);
 		if (created < 0) {
-			this.created = (new Date().getTime() / 1000);
+			this.created = Now.seconds();
 			this.modified = this.created;
 		} else {
 			this.created = created;
-			this.modified = (new Date().getTime() / 1000);
+			this.modified = Now.seconds();
 		}
 	}
 
@@ -85,12 +104,15 @@ public class Key implements Serializable {
 			this.attributes = new HashMap<String, String>();
 			this.attributes.putAll(toAdd.getAttributes());
 		}
+		this.userIdLower = lower(this.userId);
+		this.clientIdLower = lower(this.clientId);
+		this.attributesLower = lower(this.attributes);
 		if (toAdd.getCreated() < 0) {
-			this.created = (new Date().getTime() / 1000);
+			this.created = Now.seconds();
 			this.modified = this.created;
 		} else {
 			this.created = toAdd.getCreated();
-			this.modified = (new Date().getTime() / 1000);
+			this.modified = Now.seconds();
 		}
 	}
 
@@ -101,7 +123,7 @@ public class Key implements Serializable {
 		this.clientId = null;
 		this.id = null;
 		this.attributes = null;
-		this.created = (new Date().getTime() / 1000);
+		this.created = Now.seconds();
 		this.modified = this.created;
 	}
 
@@ -134,6 +156,7 @@ public class Key implements Serializable {
 			this.attributes = new HashMap<String, String>();
 		this.attributes.clear();
 		this.attributes.putAll(attributes);
+		this.attributesLower = lower(this.attributes);
 	}
 
 	public long getCreated() {
@@ -148,6 +171,35 @@ public class Key implements Serializable {
 		this.modified = modified;
 	}
 
+	public String getUserIdLower() {
+		return userIdLower;
+	}
+
+	public String getClientIdLower() {
+		return clientIdLower;
+	}
+
+	public Map<String, String> getAttributesLower() {
+		return attributesLower;
+	}
+
+	// String lower(String value)
+	// Normalizes a value for the case-insensitive shadow fields.
+	public static String lower(String value) {
+		return (value == null) ? null : value.toLowerCase(Locale.ROOT);
+	}
+
+	public static Map<String, String> lower(Map<String, String> attributes) {
+		if (attributes == null) {
+			return null;
+		}
+		Map<String, String> lowered = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : attributes.entrySet()) {
+			lowered.put(entry.getKey(), lower(entry.getValue()));
+		}
+		return lowered;
+	}
+
 	public OAuth2RefreshToken getRefToken() {
 		return refToken;
 	}
@@ -0,0 +1,47 @@
+package apikeystore.model;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "Key ID", description = "User ID and client ID identifying a key")
+public class KeyId implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 2301772405586154190L;
+
+	@ApiModelProperty(value = "User ID", allowEmptyValue = false, example = "Sample_User_ID_Sw")
+	@JsonProperty("userId")
+	private final String userId;
+
+	@ApiModelProperty(value = "Client ID", allowEmptyValue = false, example = "Sample_Client_ID_Sw")
+	@JsonProperty("clientId")
+	private final String clientId;
+
+	@JsonCreator
+	public KeyId(@JsonProperty("userId") String userId, @JsonProperty("clientId") String clientId) {
+		this.userId = userId;
+		this.clientId = clientId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	// String toId()
+	// Returns the ID of the key, as built by the Key class.
+	public String toId() {
+		return userId + "__" + clientId;
+	}
+
+}
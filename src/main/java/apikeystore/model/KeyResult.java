@@ -0,0 +1,45 @@
+package apikeystore.model;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "Key Result", description = "Outcome of one item of a batch key request")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KeyResult implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -6529413075880251842L;
+
+	@ApiModelProperty(value = "HTTP status code the item would have had as a single request")
+	@JsonProperty("status")
+	private final int status;
+
+	@ApiModelProperty(value = "The key; only present on success")
+	@JsonProperty("key")
+	private final Key key;
+
+	public KeyResult(int status, Key key) {
+		this.status = status;
+		this.key = key;
+	}
+
+	public KeyResult(int status) {
+		this(status, null);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+}
@@ -1,7 +1,6 @@
 package apikeystore.model;
 
 import java.util.Base64;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -11,6 +10,8 @@ import org.springframework.data.mongodb.core.index.Indexed;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
+import apikeystore.clock.Now;
+
 @ApiModel(value = "OAuth2 Access Token", description = "Value, scope and expiration of the OAuth2 access token.")
 public class OAuth2AccessToken {
 
@@ -39,9 +40,9 @@ public class OAuth2AccessToken {
 		Base64.Encoder encoder = Base64.getEncoder();
 
 		value = (new String(
-				encoder.encode((("at" + userId + ((new Date().getTime()) / 1000) + UUID.randomUUID()).getBytes()))))
+				encoder.encode((("at" + userId + Now.seconds() + UUID.randomUUID()).getBytes()))))
 						.replace("=", "").replace("/", "");
-		expiration = (((new Date().getTime()) / 1000) + lifetimeSeconds);
+		expiration = (Now.seconds() + lifetimeSeconds);
 		if (scope == null) {
 			this.scope = null;
 		} else {
@@ -96,8 +97,7 @@ public class OAuth2AccessToken {
 	}
 
 	public Boolean isExpired() {
-		Date now = new Date();
-		if ((now.getTime() / 1000) > expiration) {
+		if (Now.seconds() > expiration) {
 			return true;
 		}
 		return false;
@@ -1,7 +1,6 @@
 package apikeystore.model;
 
 import java.util.Base64;
-import java.util.Date;
 import java.util.UUID;
 
 import org.springframework.data.mongodb.core.index.Indexed;
@@ -9,6 +8,8 @@ import org.springframework.data.mongodb.core.index.Indexed;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
+import apikeystore.clock.Now;
+
 @ApiModel(value = "OAuth2 Refresh Token", description = "Value and expiration of the OAuth2 refresh token.")
 public class OAuth2RefreshToken {
 
@@ -30,9 +31,9 @@ public class OAuth2RefreshToken {
 		Base64.Encoder encoder = Base64.getEncoder();
 
 		value = (new String(
-				encoder.encode((("ref" + userId + (new Date().getTime()) / 1000 + UUID.randomUUID()).getBytes()))))
+				encoder.encode((("ref" + userId + Now.seconds() + UUID.randomUUID()).getBytes()))))
 						.replace("=", "").replace("/", "");
-		expiration = (((new Date().getTime()) / 1000) + lifetimeSeconds);
+		expiration = (Now.seconds() + lifetimeSeconds);
 	}
 
 	public OAuth2RefreshToken(String value, long expiration) {
@@ -54,8 +55,7 @@ public class OAuth2RefreshToken {
 	}
 
 	public Boolean isExpired() {
-		Date now = new Date();
-		if ((now.getTime() / 1000) > expiration) {
+		if (Now.seconds() > expiration) {
 			return true;
 		}
 		return false;
@@ -0,0 +1,58 @@
+package apikeystore.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value = "Revocation Page", description = "Access tokens revoked since a given feed cursor")
+public class RevocationPage implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 4471327165250327731L;
+
+	@ApiModelProperty(value = "Cursor to pass as 'since' on the next poll")
+	@JsonProperty("sequence")
+	private final String sequence;
+
+	@ApiModelProperty(value = "If true, revocations since the passed cursor are no longer (or were never) available, or every key was removed; validators should drop everything they have cached")
+	@JsonProperty("reset")
+	private final boolean reset;
+
+	@ApiModelProperty(value = "If true, there are more revocations than were returned; poll again right away")
+	@JsonProperty("more")
+	private final boolean more;
+
+	@ApiModelProperty(value = "Unpadded base64url SHA-256 hashes of the revoked access token values, oldest first")
+	@JsonProperty("revoked")
+	private final List<String> revoked;
+
+	public RevocationPage(String sequence, boolean reset, boolean more, List<String> revoked) {
+		this.sequence = sequence;
+		this.reset = reset;
+		this.more = more;
+		this.revoked = revoked;
+	}
+
+	public String getSequence() {
+		return sequence;
+	}
+
+	public boolean isReset() {
+		return reset;
+	}
+
+	public boolean isMore() {
+		return more;
+	}
+
+	public List<String> getRevoked() {
+		return revoked;
+	}
+
+}
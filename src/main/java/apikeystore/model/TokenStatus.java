@@ -0,0 +1,8 @@
+package apikeystore.model;
+
+// Result of validating an access token value, as returned per token by
+// /keys/auth/batch. Each corresponds to a status code of /keys/auth/{authValue}:
+// VALID (200), AT_EXPIRED (401), GONE (410) and NOT_FOUND (404).
+public enum TokenStatus {
+	VALID, AT_EXPIRED, GONE, NOT_FOUND
+}
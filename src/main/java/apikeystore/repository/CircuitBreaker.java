@@ -0,0 +1,93 @@
+package apikeystore.repository;
+
+import java.util.function.LongSupplier;
+
+// Circuit breaker for calls to the repository. After failureThreshold
+// consecutive failures (errors or timeouts) the circuit opens, and calls are
+// refused outright for openMillis, instead of each waiting out its timeout.
+// After that a single trial call is let through: if it succeeds the circuit
+// closes again, otherwise it stays open for another openMillis.
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private final LongSupplier clock;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private long opened = 0;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		this(failureThreshold, openMillis, System::currentTimeMillis);
+	}
+
+	// CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock)
+	// As above, reading the time (in milliseconds) from the passed clock.
+	public CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.clock = clock;
+	}
+
+	// boolean allow()
+	// Returns whether a call may be made now. While half open, only the one trial
+	// call is allowed until its outcome is recorded.
+	public synchronized boolean allow() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (clock.getAsLong() - openedAt >= openMillis) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	// void success()
+	// Records a successful call.
+	public synchronized void success() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+
+	// void failure()
+	// Records a failed call, opening the circuit if there have been too many in a
+	// row (or if it was the trial call).
+	public synchronized void failure() {
+		++failures;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = clock.getAsLong();
+			++opened;
+		}
+	}
+
+	// void release()
+	// Records a call that ended without telling whether the repository is
+	// healthy (e.g. it was interrupted). If it was the trial call, the next call
+	// becomes the trial instead.
+	public synchronized void release() {
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+		}
+	}
+
+	public synchronized State state() {
+		return state;
+	}
+
+	// long opened()
+	// Returns the number of times the circuit has opened.
+	public synchronized long opened() {
+		return opened;
+	}
+}
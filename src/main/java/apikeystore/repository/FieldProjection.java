@@ -0,0 +1,157 @@
+package apikeystore.repository;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import apikeystore.clock.Now;
+
+// A 'fields' request parameter (e.g. "userId,clientId,authTokenExpired")
+// compiled into a Mongo projection document, so that field cherry-picking is
+// done by the database instead of by rebuilding each result in memory.
+// The only per-document work left is filling in the computed 'expired' flags
+// and stripping bookkeeping fields (including the lower-cased search fields).
+public class FieldProjection {
+
+	// Field parameter name -> document path.
+	private static final Map<String, String> PATHS = new HashMap<>();
+
+	static {
+		PATHS.put("userId", "userId");
+		PATHS.put("clientId", "clientId");
+		PATHS.put("created", "created");
+		PATHS.put("modified", "modified");
+		PATHS.put("attributes", "attributes");
+		PATHS.put("agencyCode", "attributes.agencyCode");
+		PATHS.put("attributesAgencyCode", "attributes.agencyCode");
+		PATHS.put("authToken", "authToken");
+		PATHS.put("authTokenValue", "authToken.value");
+		PATHS.put("authTokenExpiration", "authToken.expiration");
+		PATHS.put("authTokenScope", "authToken.scope");
+		PATHS.put("refToken", "refToken");
+		PATHS.put("refTokenValue", "refToken.value");
+		PATHS.put("refTokenExpiration", "refToken.expiration");
+	}
+
+	// Compiled projections, by fields parameter. Bounded, since the parameter
+	// comes straight from the request.
+	private static final int MAX_CACHED = 256;
+	private static final ConcurrentHashMap<String, FieldProjection> compiled = new ConcurrentHashMap<>();
+
+	private final DBObject fields;
+	private final boolean authTokenExpired;
+	private final boolean refTokenExpired;
+	private final boolean dropAuthTokenExpiration;
+	private final boolean dropRefTokenExpiration;
+	private final boolean wholeAuthToken;
+
+	private FieldProjection(String fieldParams) {
+		Set<String> params = new LinkedHashSet<>();
+		for (String param : fieldParams.split(",")) {
+			params.add(param.trim());
+		}
+
+		wholeAuthToken = params.contains("authToken");
+		boolean wholeRefToken = params.contains("refToken");
+		boolean wholeAttributes = params.contains("attributes");
+
+		authTokenExpired = !wholeAuthToken && params.contains("authTokenExpired");
+		refTokenExpired = !wholeRefToken && params.contains("refTokenExpired");
+		dropAuthTokenExpiration = authTokenExpired && !params.contains("authTokenExpiration");
+		dropRefTokenExpiration = refTokenExpired && !params.contains("refTokenExpiration");
+
+		fields = new BasicDBObject();
+		for (String param : params) {
+			String path = PATHS.get(param);
+			if (path == null) {
+				continue;
+			}
+			// Including a sub-document and one of its fields is a path collision.
+			if ((wholeAuthToken && path.startsWith("authToken.")) || (wholeRefToken && path.startsWith("refToken."))
+					|| (wholeAttributes && path.startsWith("attributes."))) {
+				continue;
+			}
+			fields.put(path, 1);
+		}
+		if (authTokenExpired) {
+			fields.put("authToken.expiration", 1);
+		}
+		if (refTokenExpired) {
+			fields.put("refToken.expiration", 1);
+		}
+
+		// An empty projection means every field to MongoDB. If nothing known was
+		// asked for, fetch just the ID (which complete() strips), so the result is
+		// an empty object.
+		if (fields.keySet().isEmpty()) {
+			fields.put("_id", 1);
+		}
+	}
+
+	// FieldProjection compile(String fieldParams)
+	// Returns the compiled projection for a 'fields' parameter value.
+	public static FieldProjection compile(String fieldParams) {
+		FieldProjection projection = compiled.get(fieldParams);
+		if (projection == null) {
+			projection = new FieldProjection(fieldParams);
+			if (compiled.size() < MAX_CACHED) {
+				compiled.putIfAbsent(fieldParams, projection);
+			}
+		}
+		return projection;
+	}
+
+	// DBObject getFields()
+	// Returns the Mongo projection document. A fresh copy, since the query
+	// mapper may modify it.
+	public DBObject getFields() {
+		return new BasicDBObject(fields.toMap());
+	}
+
+	// void complete(DBObject row)
+	// Finishes a projected result document in place: adds the computed 'expired'
+	// flags and drops fields that were only fetched to compute them.
+	public void complete(DBObject row) {
+		long now = Now.seconds();
+
+		row.removeField("_id");
+		row.removeField("_class");
+		row.removeField("userIdLower");
+		row.removeField("clientIdLower");
+		row.removeField("attributesLower");
+
+		Object authToken = row.get("authToken");
+		if (authToken instanceof DBObject) {
+			DBObject token = (DBObject) authToken;
+			token.removeField("_class");
+			if (wholeAuthToken) {
+				token.put("tokenType", "BEARER");
+			}
+			if (authTokenExpired) {
+				Object expiration = token.get("expiration");
+				token.put("expired", expiration instanceof Number && now > ((Number) expiration).longValue());
+				if (dropAuthTokenExpiration) {
+					token.removeField("expiration");
+				}
+			}
+		}
+
+		Object refToken = row.get("refToken");
+		if (refToken instanceof DBObject) {
+			DBObject token = (DBObject) refToken;
+			token.removeField("_class");
+			if (refTokenExpired) {
+				Object expiration = token.get("expiration");
+				token.put("expired", expiration instanceof Number && now > ((Number) expiration).longValue());
+				if (dropRefTokenExpiration) {
+					token.removeField("expiration");
+				}
+			}
+		}
+	}
+}
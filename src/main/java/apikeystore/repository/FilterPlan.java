@@ -0,0 +1,393 @@
+package apikeystore.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+
+import apikeystore.clock.Now;
+import apikeystore.model.Key;
+import apikeystore.model.QKey;
+
+// Compiled form of the collection filtering parameters (userId=...,
+// created=$gt:..., attributesX=$in:..., etc.). Each parameter and operator it
+// uses (given by the value's prefix/suffix) is compiled once into a step with
+// its query path and operator already resolved, and kept in a table, so a
+// request only has to look up its parameters' steps and bind its literal
+// values to them. Fixed-name parameters are read in a fixed order, so building
+// a predicate doesn't need to collect, sort or key the request's parameters.
+public class FilterPlan {
+
+	// Filter operators, as selected by the prefix/suffix of a parameter value.
+	private enum Op {
+		PREFIX, SUBSTRING, EXISTS_TRUE, EXISTS_FALSE, IN, GT, LT, EQ_OP, EQ, TRUE, FALSE;
+
+		// "abc*" is a prefix search, "*abc*" a substring search.
+		static Op ofString(String value) {
+			if (value.length() > 1 && value.startsWith("*") && value.endsWith("*")) {
+				return SUBSTRING;
+			} else if (value.endsWith("*")) {
+				return PREFIX;
+			} else if (value.startsWith("$exists:true")) {
+				return EXISTS_TRUE;
+			} else if (value.startsWith("$exists:false")) {
+				return EXISTS_FALSE;
+			} else if (value.startsWith("$in:")) {
+				return IN;
+			}
+			return EQ;
+		}
+
+		static Op ofLong(String value) {
+			if (value.startsWith("$gt:")) {
+				return GT;
+			} else if (value.startsWith("$lt:")) {
+				return LT;
+			} else if (value.startsWith("$eq:")) {
+				return EQ_OP;
+			} else if (value.startsWith("$exists:true")) {
+				return EXISTS_TRUE;
+			} else if (value.startsWith("$exists:false")) {
+				return EXISTS_FALSE;
+			} else if (value.startsWith("$in:")) {
+				return IN;
+			}
+			return EQ;
+		}
+
+		static Op ofBoolean(String value) {
+			return value.equalsIgnoreCase("true") ? TRUE : FALSE;
+		}
+	}
+
+	// The kind of value each filter parameter takes. Attribute parameters
+	// (attributesXyz) aren't listed, since their names aren't fixed.
+	private enum Kind {
+		STRING, LONG, EXPIRED, ATTRIBUTE
+	}
+
+	private static final Map<String, Kind> KINDS = new HashMap<>();
+
+	static {
+		KINDS.put("userId", Kind.STRING);
+		KINDS.put("clientId", Kind.STRING);
+		KINDS.put("authTokenValue", Kind.STRING);
+		KINDS.put("refTokenValue", Kind.STRING);
+		KINDS.put("agencyCode", Kind.ATTRIBUTE);
+		KINDS.put("created", Kind.LONG);
+		KINDS.put("modified", Kind.LONG);
+		KINDS.put("authTokenExpiration", Kind.LONG);
+		KINDS.put("refTokenExpiration", Kind.LONG);
+		KINDS.put("authTokenExpired", Kind.EXPIRED);
+		KINDS.put("refTokenExpired", Kind.EXPIRED);
+	}
+
+	// The fixed-name parameters, in the order their conditions are combined
+	// (attribute parameters go right after agencyCode).
+	private static final String[] NAMES = { "agencyCode", "authTokenExpiration", "authTokenExpired",
+			"authTokenValue", "clientId", "created", "modified", "refTokenExpiration", "refTokenExpired",
+			"refTokenValue", "userId" };
+
+	// TODO: Changing the scope field from Set<String> to Set<Resource> broke
+	// filtering on scope (authTokenScope), so it isn't handled here. Fixing it will
+	// likely involve getting the querydsl plugin to generate a QResource class and
+	// filtering with key.authToken.scope.any().
+
+	// One filter parameter, bound to a request's value.
+	interface Step {
+		BooleanExpression bind(String value, long now);
+	}
+
+	// Compiled steps of the fixed-name parameters, by name index and operator.
+	// Filled in lazily; a race just compiles the same step twice.
+	private static final Step[][] steps = new Step[NAMES.length][Op.values().length];
+
+	// Compiled steps of the attribute parameters, by name and operator. Bounded,
+	// since the names come from request parameters.
+	private static final int MAX_ATTRIBUTES = 1000;
+	private static final ConcurrentHashMap<String, Step[]> attributeSteps = new ConcurrentHashMap<>();
+
+	private FilterPlan() {
+	}
+
+	// Predicate build(Map<String, String> requestParams)
+	// Returns the query predicate for the filtering parameters among the passed
+	// request parameters, or null if there are none.
+	public static Predicate build(Map<String, String> requestParams) {
+		if (requestParams == null || requestParams.isEmpty()) {
+			return null;
+		}
+
+		long now = Now.seconds();
+		BooleanExpression predicate = bind(0, requestParams, now, null);
+		for (String name : attributeNames(requestParams)) {
+			String value = requestParams.get(name);
+			predicate = step(name, value).bind(value, now).and(predicate);
+		}
+		for (int i = 1; i < NAMES.length; ++i) {
+			predicate = bind(i, requestParams, now, predicate);
+		}
+		return predicate;
+	}
+
+	// BooleanExpression bind(int index, Map<String, String> requestParams, long
+	// now, BooleanExpression predicate)
+	// Adds the condition for the fixed-name parameter at the passed index (if it
+	// is among the request parameters) to the predicate.
+	private static BooleanExpression bind(int index, Map<String, String> requestParams, long now,
+			BooleanExpression predicate) {
+		String value = requestParams.get(NAMES[index]);
+		if (value == null) {
+			return predicate;
+		}
+		return step(index, value).bind(value, now).and(predicate);
+	}
+
+	// List<String> attributeNames(Map<String, String> requestParams)
+	// Returns the attribute parameters among the request parameters, sorted.
+	private static List<String> attributeNames(Map<String, String> requestParams) {
+		List<String> names = Collections.emptyList();
+		for (String name : requestParams.keySet()) {
+			if (name.startsWith("attributes") && name.length() > "attributes".length()) {
+				if (names.isEmpty()) {
+					names = new ArrayList<>(2);
+				}
+				names.add(name);
+			}
+		}
+		if (names.size() > 1) {
+			Collections.sort(names);
+		}
+		return names;
+	}
+
+	// Step step(String name, String value)
+	// Returns the (possibly cached) step for a filter parameter and the operator
+	// its value uses, or null if it isn't a filter parameter.
+	static Step step(String name, String value) {
+		int index = Arrays.binarySearch(NAMES, name);
+		if (index >= 0) {
+			return step(index, value);
+		}
+		if (kindOf(name) != Kind.ATTRIBUTE) {
+			return null;
+		}
+
+		Op op = Op.ofString(value);
+		Step[] byOp = attributeSteps.get(name);
+		if (byOp == null) {
+			byOp = new Step[Op.values().length];
+			if (attributeSteps.size() < MAX_ATTRIBUTES) {
+				Step[] existing = attributeSteps.putIfAbsent(name, byOp);
+				if (existing != null) {
+					byOp = existing;
+				}
+			}
+		}
+		if (byOp[op.ordinal()] == null) {
+			byOp[op.ordinal()] = compile(name, op);
+		}
+		return byOp[op.ordinal()];
+	}
+
+	// Step step(int index, String value)
+	// As above, for the fixed-name parameter at the passed index.
+	private static Step step(int index, String value) {
+		String name = NAMES[index];
+		Op op;
+		switch (kindOf(name)) {
+		case LONG:
+			op = Op.ofLong(value);
+			break;
+		case EXPIRED:
+			op = Op.ofBoolean(value);
+			break;
+		default:
+			op = Op.ofString(value);
+		}
+
+		Step step = steps[index][op.ordinal()];
+		if (step == null) {
+			step = compile(name, op);
+			steps[index][op.ordinal()] = step;
+		}
+		return step;
+	}
+
+	// Kind kindOf(String name)
+	// Returns the kind of a filter parameter, or null if it isn't one.
+	private static Kind kindOf(String name) {
+		Kind kind = KINDS.get(name);
+		if (kind == null && name.startsWith("attributes") && name.length() > "attributes".length()) {
+			return Kind.ATTRIBUTE;
+		}
+		return kind;
+	}
+
+	// Step compile(String name, Op op)
+	// Resolves the query path and operator for one filter parameter.
+	private static Step compile(String name, Op op) {
+		QKey key = QKey.key;
+		switch (kindOf(name)) {
+		case LONG:
+			return longStep(longPath(name), op);
+		case EXPIRED:
+			NumberPath<Long> expiration = name.startsWith("authToken") ? key.authToken.expiration
+					: key.refToken.expiration;
+			if (op == Op.TRUE) {
+				return (value, now) -> expiration.lt(now);
+			}
+			return (value, now) -> expiration.gt(now);
+		case ATTRIBUTE:
+			String attKey = name;
+			if (name.startsWith("attributes")) {
+				attKey = Character.toLowerCase(name.charAt(10)) + name.substring(11);
+			}
+			return attributeStep(key.attributes.containsKey(attKey), key.attributes.get(attKey),
+					key.attributesLower.get(attKey), op);
+		default:
+			return stringStep(stringPath(name), lowerPath(name), op);
+		}
+	}
+
+	// Implementation for the $exists, $in and wildcard filtering functionality on
+	// string fields.
+	// Prefix searches are anchored, so they can use an index: case-insensitive
+	// ones go against the field's lower-cased shadow field (if it has one), while
+	// token values are matched as-is. Substring searches can't use an index, and
+	// are only done if asked for explicitly.
+	private static Step stringStep(StringPath path, StringPath lowerPath, Op op) {
+		switch (op) {
+		case PREFIX:
+			if (lowerPath == null) {
+				return (value, now) -> path.startsWith(value.substring(0, value.length() - 1));
+			}
+			return (value, now) -> lowerPath.startsWith(Key.lower(value.substring(0, value.length() - 1)));
+		case SUBSTRING:
+			return (value, now) -> path.containsIgnoreCase(value.substring(1, value.length() - 1));
+		case EXISTS_TRUE:
+			BooleanExpression notNull = path.isNotNull();
+			return (value, now) -> notNull;
+		case EXISTS_FALSE:
+			BooleanExpression isNull = path.isNull();
+			return (value, now) -> isNull;
+		case IN:
+			return (value, now) -> {
+				BooleanExpression any = null;
+				for (String i : value.substring(4).split(",")) {
+					any = path.eq(i).or(any);
+				}
+				return any;
+			};
+		default:
+			return (value, now) -> path.eq(value);
+		}
+	}
+
+	// As stringStep, but for an attribute, which must also be present in the
+	// attributes map.
+	private static Step attributeStep(BooleanExpression present, StringPath path, StringPath lowerPath, Op op) {
+		switch (op) {
+		case PREFIX:
+			return (value, now) -> present
+					.and(lowerPath.startsWith(Key.lower(value.substring(0, value.length() - 1))));
+		case SUBSTRING:
+			return (value, now) -> present.and(path.containsIgnoreCase(value.substring(1, value.length() - 1)));
+		case EXISTS_TRUE:
+			BooleanExpression notNull = present.and(path.isNotNull());
+			return (value, now) -> notNull;
+		case EXISTS_FALSE:
+			BooleanExpression isNull = path.isNull();
+			return (value, now) -> isNull;
+		case IN:
+			return (value, now) -> {
+				BooleanExpression any = null;
+				for (String i : value.substring(4).split(",")) {
+					any = present.and(path.eq(i)).or(any);
+				}
+				return any;
+			};
+		default:
+			return (value, now) -> present.and(path.eq(value));
+		}
+	}
+
+	// Implementation for the $exists and numeric operator filtering functionality
+	// on long integer fields.
+	private static Step longStep(NumberPath<Long> path, Op op) {
+		switch (op) {
+		case GT:
+			return (value, now) -> path.gt(Long.parseLong(value.substring(4)));
+		case LT:
+			return (value, now) -> path.lt(Long.parseLong(value.substring(4)));
+		case EQ_OP:
+			return (value, now) -> path.eq(Long.parseLong(value.substring(4)));
+		case EXISTS_TRUE:
+			BooleanExpression notNull = path.isNotNull();
+			return (value, now) -> notNull;
+		case EXISTS_FALSE:
+			BooleanExpression isNull = path.isNull();
+			return (value, now) -> isNull;
+		case IN:
+			return (value, now) -> {
+				BooleanExpression any = null;
+				for (String i : value.substring(4).split(",")) {
+					any = path.eq(Long.parseLong(i)).or(any);
+				}
+				return any;
+			};
+		default:
+			return (value, now) -> path.eq(Long.parseLong(value));
+		}
+	}
+
+	private static StringPath stringPath(String name) {
+		QKey key = QKey.key;
+		switch (name) {
+		case "userId":
+			return key.userId;
+		case "clientId":
+			return key.clientId;
+		case "authTokenValue":
+			return key.authToken.value;
+		default:
+			return key.refToken.value;
+		}
+	}
+
+	// Returns the lower-cased shadow field for a string field, or null if it has
+	// none (token values are case-sensitive).
+	private static StringPath lowerPath(String name) {
+		QKey key = QKey.key;
+		switch (name) {
+		case "userId":
+			return key.userIdLower;
+		case "clientId":
+			return key.clientIdLower;
+		default:
+			return null;
+		}
+	}
+
+	private static NumberPath<Long> longPath(String name) {
+		QKey key = QKey.key;
+		switch (name) {
+		case "created":
+			return key.created;
+		case "modified":
+			return key.modified;
+		case "authTokenExpiration":
+			return key.authToken.expiration;
+		default:
+			return key.refToken.expiration;
+		}
+	}
+}
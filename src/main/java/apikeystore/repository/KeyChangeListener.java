@@ -0,0 +1,27 @@
+package apikeystore.repository;
+
+import java.util.List;
+
+import apikeystore.model.Key;
+
+// Notified by the repository whenever keys are written or removed, so that
+// in-memory structures built over the collection (caches, filters) stay in step
+// with it.
+public interface KeyChangeListener {
+
+	public void keySaved(Key key);
+
+	public void keyRemoved(Key key);
+
+	// Bulk removal; the keys passed may only carry their ID and access token
+	// value.
+	public void keysRemoved(List<Key> keys);
+
+	// Keys that are gone, but some of which may have been removed (and notified)
+	// by a concurrent call rather than the one notifying now, so listeners that
+	// count removals must not count these. As for keysRemoved, the keys may only
+	// carry their ID and access token value.
+	public void keysPossiblyRemoved(List<Key> keys);
+
+	public void keysCleared();
+}
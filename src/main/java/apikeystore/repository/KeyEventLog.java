@@ -0,0 +1,366 @@
+package apikeystore.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CursorType;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.client.model.DBCollectionFindOptions;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+
+// Keeps the in-memory structures of several keystore instances sharing one
+// database (token caches, filters, revocation lists) in step with each other.
+// (The revocation feed needs no help: it is kept in the database itself.)
+// Every key change an instance makes is appended to a capped collection, which
+// every instance tails with a tailable cursor, replaying the changes made by
+// the others to its own change listeners within moments of them happening.
+//
+// (The driver in use predates change streams; a capped collection also works
+// against a standalone server.)
+//
+// Event IDs are generated by each instance, so they aren't ordered across
+// instances. The cursor is therefore never positioned by comparing IDs: it
+// reads the collection in insertion ($natural) order from the start, skipping
+// events up to the last one seen (see Position).
+//
+// Events carry the ID and access token of each key concerned, which is all the
+// listeners need:
+// { origin: instance, type: saved|removed|possiblyRemoved|cleared, time: Date,
+// keys: [ { _id, authToken: { value, expiration } } ] }
+@Component
+public class KeyEventLog implements KeyChangeListener {
+
+	@Autowired
+	private MongoTemplate mongoOps;
+
+	@Autowired
+	private YAMLConfig config;
+
+	@Autowired
+	private ApplicationContext context;
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyEventLog.class);
+
+	static final String COLLECTION = "apikeystore_events";
+
+	// Keys per event, well below the document size limit.
+	private static final int MAX_EVENT_KEYS = 1000;
+
+	private static final long RETRY_MILLIS = 1000;
+
+	private final String origin = UUID.randomUUID().toString();
+
+	// The other change listeners, to replay remote events to.
+	private List<KeyChangeListener> listeners = Collections.emptyList();
+
+	private volatile boolean running = false;
+	private Thread subscriber;
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong publishFailures = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+	private volatile long lastLagMillis = 0;
+	private volatile long maxLagMillis = 0;
+	private volatile long lastApplied = 0;
+
+	// void start()
+	// Creates the event collection if needed and starts tailing it from its
+	// current end.
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void start() {
+		if (!config.isEventLogEnabled() || running) {
+			return;
+		}
+
+		List<KeyChangeListener> others = new ArrayList<>(context.getBeansOfType(KeyChangeListener.class).values());
+		others.remove(this);
+		// The revocation feed is kept in the database, so it has the other
+		// instances' revocations already.
+		others.removeIf(listener -> listener instanceof RevocationFeed);
+		listeners = others;
+
+		if (!mongoOps.collectionExists(COLLECTION)) {
+			try {
+				mongoOps.createCollection(COLLECTION, new CollectionOptions(config.getEventLogSizeBytes(), null, true));
+			} catch (RuntimeException e) {
+				// Most likely created by another instance in the meantime.
+				logger.debug("Could not create {}: {}", COLLECTION, e.getMessage());
+			}
+		}
+
+		// A tailable cursor on an empty capped collection is closed straight away,
+		// so start from a marker event of our own.
+		ObjectId from = append("started", Collections.<Key>emptyList());
+
+		running = true;
+		subscriber = new Thread(() -> tail(from), "key-event-log");
+		subscriber.setDaemon(true);
+		subscriber.start();
+		logger.info("Tailing key events in {} as {}.", COLLECTION, origin);
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		running = false;
+		if (subscriber != null) {
+			subscriber.interrupt();
+			subscriber = null;
+		}
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		publish("saved", Collections.singletonList(key));
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		publish("removed", Collections.singletonList(key));
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		for (int i = 0; i < keys.size(); i += MAX_EVENT_KEYS) {
+			publish("removed", keys.subList(i, Math.min(keys.size(), i + MAX_EVENT_KEYS)));
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		for (int i = 0; i < keys.size(); i += MAX_EVENT_KEYS) {
+			publish("possiblyRemoved", keys.subList(i, Math.min(keys.size(), i + MAX_EVENT_KEYS)));
+		}
+	}
+
+	@Override
+	public void keysCleared() {
+		publish("cleared", Collections.<Key>emptyList());
+	}
+
+	// Map<String, Long> stats()
+	// Returns the number of events published and applied, and how far behind the
+	// originating instance the last (and slowest) remote event was applied.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("enabled", running ? 1L : 0L);
+		stats.put("published", published.get());
+		stats.put("publishFailures", publishFailures.get());
+		stats.put("applied", applied.get());
+		stats.put("lastLagMillis", lastLagMillis);
+		stats.put("maxLagMillis", maxLagMillis);
+		stats.put("lastApplied", lastApplied);
+		return stats;
+	}
+
+	// void publish(String type, List<Key> keys)
+	// Appends a local change to the log. A failure is logged but doesn't fail the
+	// write itself (the other instances' caches then catch up as entries expire).
+	private void publish(String type, List<Key> keys) {
+		if (!running) {
+			return;
+		}
+		try {
+			append(type, keys);
+			published.incrementAndGet();
+		} catch (RuntimeException e) {
+			publishFailures.incrementAndGet();
+			logger.warn("Could not publish key {} event: {}", type, e.getMessage());
+		}
+	}
+
+	private ObjectId append(String type, List<Key> keys) {
+		BasicDBList docs = new BasicDBList();
+		for (Key key : keys) {
+			DBObject doc = new BasicDBObject("_id", key.getId());
+			if (key.getAuthToken() != null) {
+				doc.put("authToken", new BasicDBObject("value", key.getAuthToken().getValue()).append("expiration",
+						key.getAuthToken().getExpiration()));
+			}
+			docs.add(doc);
+		}
+
+		ObjectId id = new ObjectId();
+		mongoOps.getCollection(COLLECTION).insert(new BasicDBObject("_id", id).append("origin", origin)
+				.append("type", type).append("time", new Date()).append("keys", docs));
+		return id;
+	}
+
+	// Position of the subscriber in the log, as the ID of the last event read.
+	// Each time the cursor is (re)opened it starts from the oldest event still in
+	// the collection, and the events up to and including the last one read are
+	// skipped. If the cursor catches up without coming across that event, it has
+	// been overwritten since (the collection is capped, and drops its oldest
+	// events first), so everything skipped is newer and is handed back to be
+	// applied after all.
+	static final class Position {
+		private Object last;
+		private boolean found;
+		private final List<DBObject> skipped = new ArrayList<>();
+
+		Position(Object last) {
+			this.last = last;
+		}
+
+		// void reopened()
+		// Called when a new cursor is opened, from the start of the collection.
+		void reopened() {
+			found = false;
+			skipped.clear();
+		}
+
+		// List<DBObject> read(DBObject event)
+		// Returns the events to apply now that the passed one has been read.
+		List<DBObject> read(DBObject event) {
+			if (!found) {
+				if (event.get("_id").equals(last)) {
+					found = true;
+					skipped.clear();
+				} else {
+					skipped.add(event);
+				}
+				return Collections.emptyList();
+			}
+			last = event.get("_id");
+			return Collections.singletonList(event);
+		}
+
+		// List<DBObject> caughtUp()
+		// Called when the cursor has read every event in the collection. Returns the
+		// events skipped while looking for the last one read, if it is gone.
+		List<DBObject> caughtUp() {
+			if (found) {
+				return Collections.emptyList();
+			}
+			found = true;
+			List<DBObject> missed = new ArrayList<>(skipped);
+			skipped.clear();
+			if (!missed.isEmpty()) {
+				last = missed.get(missed.size() - 1).get("_id");
+			}
+			return missed;
+		}
+
+		boolean isFound() {
+			return found;
+		}
+	}
+
+	// void tail(ObjectId from)
+	// Subscriber loop: applies every remote event after the passed one, reopening
+	// the cursor whenever it is lost.
+	private void tail(ObjectId from) {
+		DBCollection events = mongoOps.getCollection(COLLECTION);
+		DBCollectionFindOptions options = new DBCollectionFindOptions().cursorType(CursorType.TailableAwait)
+				.sort(new BasicDBObject("$natural", 1)).maxAwaitTime(1, TimeUnit.SECONDS);
+		Position position = new Position(from);
+
+		while (running) {
+			position.reopened();
+			try (DBCursor cursor = events.find(new BasicDBObject(), options)) {
+				while (running) {
+					DBObject event = cursor.tryNext();
+					if (event == null) {
+						// Closed by the server (e.g. the collection was dropped).
+						if (cursor.getCursorId() == 0) {
+							break;
+						}
+						if (!position.isFound()) {
+							logger.warn("Key events were overwritten before being read; some remote changes were missed.");
+							applyAll(position.caughtUp());
+						}
+						continue;
+					}
+					applyAll(position.read(event));
+				}
+			} catch (RuntimeException e) {
+				if (running) {
+					logger.warn("Lost the key event cursor ({}); reopening.", e.getMessage());
+				}
+			}
+
+			if (running) {
+				try {
+					Thread.sleep(RETRY_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void applyAll(List<DBObject> events) {
+		for (DBObject event : events) {
+			if (!origin.equals(event.get("origin"))) {
+				apply(event);
+			}
+		}
+	}
+
+	// void apply(DBObject event)
+	// Replays a remote event to the local change listeners.
+	void apply(DBObject event) {
+		List<Key> keys = new ArrayList<>();
+		Object docs = event.get("keys");
+		if (docs instanceof List) {
+			for (Object doc : (List<?>) docs) {
+				keys.add(toKey((DBObject) doc));
+			}
+		}
+
+		String type = (String) event.get("type");
+		for (KeyChangeListener listener : listeners) {
+			if ("saved".equals(type)) {
+				for (Key key : keys) {
+					listener.keySaved(key);
+				}
+			} else if ("removed".equals(type)) {
+				listener.keysRemoved(keys);
+			} else if ("possiblyRemoved".equals(type)) {
+				listener.keysPossiblyRemoved(keys);
+			} else if ("cleared".equals(type)) {
+				listener.keysCleared();
+			}
+		}
+
+		// Lag is measured against the originating instance's clock.
+		applied.incrementAndGet();
+		lastApplied = System.currentTimeMillis();
+		Object time = event.get("time");
+		if (time instanceof Date) {
+			lastLagMillis = Math.max(0, lastApplied - ((Date) time).getTime());
+			maxLagMillis = Math.max(maxLagMillis, lastLagMillis);
+		}
+	}
+
+	// Key toKey(DBObject doc)
+	// Reads a key (ID and access token only) from an event.
+	Key toKey(DBObject doc) {
+		return mongoOps.getConverter().read(Key.class, doc);
+	}
+}
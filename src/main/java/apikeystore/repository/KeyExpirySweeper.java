@@ -0,0 +1,83 @@
+package apikeystore.repository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import apikeystore.clock.Now;
+import apikeystore.config.YAMLConfig;
+
+// Background purge of dead keys (both tokens expired). Keys are removed in
+// batches on a fixed schedule, so the find endpoints can just answer 410 for an
+// expired key instead of deleting it inside the request.
+// (A Mongo TTL index can't be used here, since token expirations are stored as
+// epoch seconds rather than dates.)
+@Component
+public class KeyExpirySweeper {
+
+	@Autowired
+	private KeyRepository keyRepository;
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyExpirySweeper.class);
+
+	private final AtomicLong cycles = new AtomicLong();
+	private final AtomicLong purged = new AtomicLong();
+	private volatile long lastPurged = 0;
+	private volatile long lastDurationMillis = 0;
+	private volatile long lastRun = 0;
+
+	// void sweep()
+	// Removes every key that is dead as of now, one batch at a time.
+	@Scheduled(initialDelayString = "#{${sweeperIntervalSeconds:60} * 1000}",
+			fixedDelayString = "#{${sweeperIntervalSeconds:60} * 1000}")
+	public void sweep() {
+		if (!config.isSweeperEnabled()) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		long now = Now.seconds();
+		long count = 0;
+		int batch;
+		try {
+			do {
+				batch = keyRepository.deleteExpired(now, config.getSweeperBatchSize());
+				count += batch;
+			} while (batch >= config.getSweeperBatchSize());
+		} catch (RuntimeException e) {
+			logger.warn("Expired key sweep failed after removing {} keys.", count, e);
+		}
+
+		lastPurged = count;
+		lastDurationMillis = System.currentTimeMillis() - start;
+		lastRun = now;
+		purged.addAndGet(count);
+		cycles.incrementAndGet();
+		if (count > 0) {
+			logger.info("Expired key sweep removed {} keys in {} ms.", count, lastDurationMillis);
+		}
+	}
+
+	// Map<String, Long> stats()
+	// Returns the number of sweeps run and keys purged, overall and by the last
+	// sweep.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("enabled", config.isSweeperEnabled() ? 1L : 0L);
+		stats.put("cycles", cycles.get());
+		stats.put("purged", purged.get());
+		stats.put("lastPurged", lastPurged);
+		stats.put("lastDurationMillis", lastDurationMillis);
+		stats.put("lastRun", lastRun);
+		return stats;
+	}
+}
@@ -0,0 +1,230 @@
+package apikeystore.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.IndexOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBObject;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+
+// Declares the indexes backing the collection filtering and sorting parameters
+// (the token value indexes are declared on the token classes), ensures them at
+// startup, and checks with explain() that each supported query shape is
+// actually served by an index.
+@Component
+public class KeyIndexManager {
+
+	@Autowired
+	private MongoTemplate mongoOps;
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyIndexManager.class);
+
+	private static final int BACKFILL_BATCH_SIZE = 1000;
+
+	// A filter/sort combination the list endpoints support, to be checked against
+	// the query planner.
+	private static class Shape {
+		final String name;
+		final DBObject filter;
+		final DBObject sort;
+
+		Shape(String name, DBObject filter, DBObject sort) {
+			this.name = name;
+			this.filter = filter;
+			this.sort = sort;
+		}
+	}
+
+	// List<Index> indexes()
+	// Returns the declared indexes. They are built in the background, since they
+	// are ensured once the application is already serving (a foreground build
+	// locks the database until it is done).
+	public List<Index> indexes() {
+		List<Index> indexes = new ArrayList<>();
+		indexes.add(new Index().on("userId", Direction.ASC).on("clientId", Direction.ASC).named("userId_clientId")
+				.background());
+		indexes.add(new Index().on("clientId", Direction.ASC).on("created", Direction.ASC).named("clientId_created")
+				.background());
+		indexes.add(new Index().on("attributes.agencyCode", Direction.ASC).on("userId", Direction.ASC)
+				.named("agencyCode_userId").background());
+		indexes.add(new Index().on("created", Direction.ASC).named("created").background());
+		indexes.add(new Index().on("modified", Direction.ASC).named("modified").background());
+		indexes.add(
+				new Index().on("authToken.expiration", Direction.ASC).named("authToken_expiration").background());
+		indexes.add(new Index().on("refToken.expiration", Direction.ASC).named("refToken_expiration").background());
+		indexes.add(new Index().on("userIdLower", Direction.ASC).named("userIdLower").background());
+		indexes.add(new Index().on("clientIdLower", Direction.ASC).named("clientIdLower").background());
+		indexes.add(
+				new Index().on("attributesLower.agencyCode", Direction.ASC).named("agencyCodeLower").background());
+		return indexes;
+	}
+
+	// void ensureIndexes()
+	// Fills in the lower-cased shadow fields of keys stored before they existed
+	// (always, since wildcard filters silently miss keys without them), then, if
+	// index management is enabled, creates any declared index that doesn't exist
+	// yet and checks the supported query shapes.
+	@EventListener(ApplicationReadyEvent.class)
+	public void ensureIndexes() {
+		backfillShadowFields();
+
+		if (!config.isIndexManagementEnabled()) {
+			logger.info("Index management disabled.");
+			return;
+		}
+
+		IndexOperations indexOps = mongoOps.indexOps(Key.class);
+		for (Index index : indexes()) {
+			indexOps.ensureIndex(index);
+		}
+		logger.info("Ensured {} key indexes.", indexes().size());
+
+		for (Shape shape : shapes()) {
+			String stage = unindexedStage(shape);
+			if (stage != null) {
+				logger.warn("Key query shape '{}' is not index-backed ({} in the winning plan).", shape.name, stage);
+			}
+		}
+	}
+
+	// List<Shape> shapes()
+	// Returns the filter/sort shapes expected to be index-backed.
+	private List<Shape> shapes() {
+		DBObject none = new BasicDBObject();
+		DBObject range = new BasicDBObject("$gt", 0L);
+		// As generated for a wildcard (prefix) filter.
+		Pattern prefix = Pattern.compile("^\\Qa\\E");
+
+		List<Shape> shapes = new ArrayList<>();
+		shapes.add(new Shape("userId", new BasicDBObject("userId", ""), none));
+		shapes.add(new Shape("clientId", new BasicDBObject("clientId", ""), none));
+		shapes.add(new Shape("agencyCode", new BasicDBObject("attributes.agencyCode", ""), none));
+		shapes.add(new Shape("created", new BasicDBObject("created", range), none));
+		shapes.add(new Shape("modified", new BasicDBObject("modified", range), none));
+		shapes.add(new Shape("authTokenExpiration", new BasicDBObject("authToken.expiration", range), none));
+		shapes.add(new Shape("refTokenExpiration", new BasicDBObject("refToken.expiration", range), none));
+		shapes.add(new Shape("clientId, sortBy=created", new BasicDBObject("clientId", ""),
+				new BasicDBObject("created", 1)));
+		shapes.add(new Shape("agencyCode, sortBy=userId", new BasicDBObject("attributes.agencyCode", ""),
+				new BasicDBObject("userId", 1)));
+		shapes.add(new Shape("userId prefix", new BasicDBObject("userIdLower", prefix), none));
+		shapes.add(new Shape("clientId prefix", new BasicDBObject("clientIdLower", prefix), none));
+		shapes.add(new Shape("agencyCode prefix", new BasicDBObject("attributesLower.agencyCode", prefix), none));
+		shapes.add(new Shape("sortBy=userId", none, new BasicDBObject("userId", 1)));
+		shapes.add(new Shape("sortBy=clientId", none, new BasicDBObject("clientId", 1)));
+		shapes.add(new Shape("sortBy=created", none, new BasicDBObject("created", 1)));
+		shapes.add(new Shape("sortBy=modified", none, new BasicDBObject("modified", 1)));
+		return shapes;
+	}
+
+	// void backfillShadowFields()
+	// Sets the lower-cased shadow fields used by wildcard filters on any key
+	// missing them, in unordered bulk batches.
+	private void backfillShadowFields() {
+		Query query = new Query(Criteria.where("userIdLower").exists(false));
+		query.fields().include("userId").include("clientId").include("attributes");
+
+		long count = 0;
+		BulkOperations bulk = null;
+		int batched = 0;
+		try (CloseableIterator<Key> it = mongoOps.stream(query, Key.class)) {
+			while (it.hasNext()) {
+				Key key = it.next();
+				if (bulk == null) {
+					bulk = mongoOps.bulkOps(BulkMode.UNORDERED, Key.class);
+				}
+				bulk.updateOne(new Query(Criteria.where("_id").is(key.getId())),
+						new Update().set("userIdLower", Key.lower(key.getUserId()))
+								.set("clientIdLower", Key.lower(key.getClientId()))
+								.set("attributesLower", Key.lower(key.getAttributes())));
+				++count;
+				if (++batched == BACKFILL_BATCH_SIZE) {
+					bulk.execute();
+					bulk = null;
+					batched = 0;
+				}
+			}
+		}
+		if (bulk != null) {
+			bulk.execute();
+		}
+
+		if (count > 0) {
+			logger.info("Backfilled lower-cased search fields on {} keys.", count);
+		}
+	}
+
+	// String unindexedStage(Shape shape)
+	// Asks the query planner (without running the query) how it would execute the
+	// shape. Returns the stage that makes it unindexed (a collection scan, or an
+	// in-memory sort), or null if it is index-backed.
+	private String unindexedStage(Shape shape) {
+		DBObject find = new BasicDBObject("find", mongoOps.getCollectionName(Key.class)).append("filter",
+				shape.filter);
+		if (!shape.sort.keySet().isEmpty()) {
+			find.put("sort", shape.sort);
+		}
+		CommandResult result = mongoOps
+				.executeCommand(new BasicDBObject("explain", find).append("verbosity", "queryPlanner"));
+		if (!result.ok()) {
+			logger.warn("Could not explain key query shape '{}': {}", shape.name, result.getErrorMessage());
+			return null;
+		}
+
+		Object queryPlanner = result.get("queryPlanner");
+		if (!(queryPlanner instanceof DBObject)) {
+			return null;
+		}
+		return findStage(((DBObject) queryPlanner).get("winningPlan"));
+	}
+
+	// String findStage(Object plan)
+	// Searches a plan tree for a collection scan or in-memory sort stage.
+	private String findStage(Object plan) {
+		if (plan instanceof List) {
+			for (Object child : (List<?>) plan) {
+				String stage = findStage(child);
+				if (stage != null) {
+					return stage;
+				}
+			}
+		} else if (plan instanceof DBObject) {
+			DBObject node = (DBObject) plan;
+			Object stage = node.get("stage");
+			if ("COLLSCAN".equals(stage) || "SORT".equals(stage)) {
+				return (String) stage;
+			}
+			for (String field : node.keySet()) {
+				String found = findStage(node.get(field));
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,225 @@
+package apikeystore.repository;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+
+import apikeystore.cache.TokenCache;
+import apikeystore.config.YAMLConfig;
+import apikeystore.exception.RepositoryUnavailableException;
+import apikeystore.model.Key;
+
+// Guarded repository lookups for the token validation path, so that a stalled
+// or unavailable database doesn't tie up every request thread:
+// - each lookup runs on a bounded pool and is abandoned after
+// lookupTimeoutMillis;
+// - a circuit breaker refuses lookups outright once they keep failing (see
+// CircuitBreaker);
+// - stale token cache entries are revalidated in the background, while the
+// cache keeps serving them (see TokenCache).
+// Refused, failed and timed-out lookups throw RepositoryUnavailableException.
+// Only database errors count against the circuit breaker; anything else (e.g.
+// a mapping error) is a bug rather than an outage, and is rethrown as it is.
+@Component
+public class KeyLookup {
+
+	@Autowired
+	private KeyRepository keyRepository;
+
+	@Autowired
+	private TokenCache tokenCache;
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyLookup.class);
+
+	private static final int REVALIDATION_THREADS = 2;
+	private static final int REVALIDATION_QUEUE = 1000;
+
+	private ThreadPoolExecutor lookups;
+	private ThreadPoolExecutor revalidations;
+	private CircuitBreaker breaker;
+
+	// Access token values being revalidated, so each is only queued once.
+	private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+	private final AtomicLong revalidated = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		int threads = Math.max(1, config.getLookupThreads());
+		lookups = pool("key-lookup", threads, threads * 4);
+		revalidations = pool("key-revalidation", REVALIDATION_THREADS, REVALIDATION_QUEUE);
+		breaker = new CircuitBreaker(config.getLookupFailureThreshold(), config.getLookupOpenMillis());
+	}
+
+	@PreDestroy
+	public void stop() {
+		lookups.shutdownNow();
+		revalidations.shutdownNow();
+	}
+
+	// Key findByAuthTokenValue(String authValue)
+	// Guarded version of the repository method.
+	public Key findByAuthTokenValue(String authValue) {
+		return call(() -> keyRepository.findByAuthTokenValue(authValue));
+	}
+
+	// List<Key> findAllByAuthTokenValueIn(Collection<String> authValues)
+	// Guarded version of the repository method.
+	public List<Key> findAllByAuthTokenValueIn(Collection<String> authValues) {
+		return call(() -> keyRepository.findAllByAuthTokenValueIn(authValues));
+	}
+
+	// void revalidate(String authValue)
+	// Queues a background lookup of a cached access token, which re-caches the key
+	// if the token is still valid and drops it otherwise. If the lookup fails, the
+	// entry is left as it is.
+	public void revalidate(String authValue) {
+		if (!revalidating.add(authValue)) {
+			return;
+		}
+		try {
+			revalidations.execute(() -> {
+				try {
+					long stamp = tokenCache.stamp();
+					Key key = call(() -> keyRepository.findByAuthTokenValue(authValue));
+					if (key == null || key.getAuthToken().isExpired()) {
+						tokenCache.invalidate(authValue);
+					} else {
+						tokenCache.put(key, stamp);
+					}
+					revalidated.incrementAndGet();
+				} catch (RepositoryUnavailableException e) {
+					// Keep serving the stale entry until its grace period runs out.
+				} catch (RuntimeException e) {
+					logger.warn("Revalidation of a cached key failed: {}", e.toString());
+				} finally {
+					revalidating.remove(authValue);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			revalidating.remove(authValue);
+		}
+	}
+
+	// Map<String, Long> stats()
+	// Returns the circuit breaker state and the lookup failure counters.
+	public Map<String, Long> stats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("circuitOpen", breaker.state() == CircuitBreaker.State.CLOSED ? 0L : 1L);
+		stats.put("circuitOpened", breaker.opened());
+		stats.put("timeouts", timeouts.get());
+		stats.put("failures", failures.get());
+		stats.put("refused", refused.get());
+		stats.put("revalidated", revalidated.get());
+		stats.put("revalidationsQueued", (long) revalidations.getQueue().size());
+		return stats;
+	}
+
+	// T call(Supplier<T> lookup)
+	// Runs a repository lookup under the circuit breaker and the per-call timeout.
+	<T> T call(Supplier<T> lookup) {
+		if (!breaker.allow()) {
+			refused.incrementAndGet();
+			throw RepositoryUnavailableException.INSTANCE;
+		}
+
+		long timeout = config.getLookupTimeoutMillis();
+		if (timeout <= 0 || lookups.isShutdown()) {
+			try {
+				T result = lookup.get();
+				breaker.success();
+				return result;
+			} catch (RuntimeException e) {
+				throw fail(e);
+			}
+		}
+
+		Future<T> future;
+		try {
+			future = lookups.submit(lookup::get);
+		} catch (RejectedExecutionException e) {
+			// Every lookup thread is busy and the queue is full: the database is
+			// already not keeping up.
+			throw fail(e);
+		}
+
+		try {
+			T result = future.get(timeout, TimeUnit.MILLISECONDS);
+			breaker.success();
+			return result;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			timeouts.incrementAndGet();
+			breaker.failure();
+			throw RepositoryUnavailableException.INSTANCE;
+		} catch (ExecutionException e) {
+			throw fail(e.getCause());
+		} catch (InterruptedException e) {
+			// Says nothing about the database, but a trial lookup must still make
+			// way for another.
+			future.cancel(true);
+			breaker.release();
+			Thread.currentThread().interrupt();
+			throw RepositoryUnavailableException.INSTANCE;
+		}
+	}
+
+	// RuntimeException fail(Throwable e)
+	// Records a failed lookup, and returns the exception to throw for it.
+	private RuntimeException fail(Throwable e) {
+		if (e instanceof DataAccessException || e instanceof MongoException
+				|| e instanceof RejectedExecutionException) {
+			failures.incrementAndGet();
+			breaker.failure();
+			logger.warn("Key lookup failed: {}", e.toString());
+			return RepositoryUnavailableException.INSTANCE;
+		}
+		breaker.release();
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+	}
+
+	private static ThreadPoolExecutor pool(String name, int threads, int queue) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), runnable -> {
+					Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+}
@@ -1,5 +1,6 @@
 package apikeystore.repository;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -21,6 +22,8 @@ public interface KeyRepository
 
 	Key findByAuthTokenValue(String value);
 
+	List<Key> findAllByAuthTokenValueIn(Collection<String> values);
+
 	Key findByRefTokenValue(String value);
 
 	Page<Key> findAllByUserId(String userId, Pageable pageable);
@@ -1,12 +1,81 @@
 package apikeystore.repository;
 
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+import com.mongodb.DBObject;
+import com.querydsl.core.types.Predicate;
+
+import apikeystore.model.CursorPage;
 import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
 
 public interface KeyRepositoryCustom {
 
 	public void saveKey(Key key);
 
+	// Inserts the key, or atomically replaces the existing key with the same ID
+	// (preserving its created timestamp). Returns the key as stored.
+	public Key upsertKey(Key key);
+
+	// As upsertKey, for several keys with distinct IDs, in a single unordered bulk
+	// write. Returns the keys as stored, in the passed order, with null for any
+	// key that couldn't be written.
+	public List<Key> upsertKeys(List<Key> keys);
+
+	// Atomically swaps in new tokens for the passed key, provided its refresh
+	// token is still the current one. Returns the updated key, or null if the key
+	// is gone or its refresh token has already been used.
+	public Key rotateTokens(Key key, OAuth2AccessToken authToken, OAuth2RefreshToken refToken);
+
+	// Removes the key, provided it still has the passed key's access token (a key
+	// replaced since it was read is left alone).
 	public void removeKey(Key key);
 
+	// Bulk removals, one delete per batch of matching keys. Return the number of
+	// keys removed.
+	public long deleteAllByUserId(String userId);
+
+	public long deleteAllByClientId(String clientId);
+
+	public long deleteAllByAgencyCode(String agencyCode);
+
+	// Removes up to 'limit' keys whose access and refresh tokens had both expired
+	// as of 'now' (in epoch seconds), in bulk (one delete per batch). Returns the
+	// number of keys removed.
+	public int deleteExpired(long now, int limit);
+
+	// Removes those of the passed keys whose access and refresh tokens had both
+	// expired as of 'now', in bulk (expiry and the access token value are checked
+	// again, in case a key was replaced since it was read). Returns the number
+	// removed.
+	public int deleteExpired(List<Key> keys, long now);
+
 	public void drop();
+
+	// Paginated query returning only the projected fields of each matching key,
+	// as raw documents.
+	public Page<DBObject> findAllProjected(Predicate predicate, Pageable pageable, FieldProjection projection);
+
+	// Paginated query without a total count: fetches one extra key to tell
+	// whether there is a next page. Keys are returned whole, or projected if a
+	// projection is passed.
+	public Slice<Object> findAllSlice(Predicate predicate, Pageable pageable, FieldProjection projection);
+
+	// Paginated query whose total count is reused for a short while (see
+	// CountCache) rather than recounted on every request.
+	public Page<Object> findAllCachedTotal(Predicate predicate, Pageable pageable, FieldProjection projection);
+
+	// Keyset-paginated query: returns up to 'size' keys sorting after the passed
+	// cursor (or from the start if it is null or empty), plus the cursor for the
+	// next page. Keys are returned whole, or projected if a projection is passed.
+	// Counts the total only if asked to. Throws an IllegalArgumentException if the
+	// cursor is malformed.
+	public CursorPage findAllAfter(Predicate predicate, Sort sort, int size, String after, boolean total,
+			FieldProjection projection);
 }
@@ -1,29 +1,521 @@
 package apikeystore.repository;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.support.SpringDataMongodbQuery;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteUpsert;
+import com.mongodb.DBObject;
+import com.querydsl.core.types.Predicate;
 
+import apikeystore.cache.CountCache;
+import apikeystore.clock.Now;
+import apikeystore.model.CursorPage;
 import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
 
 public class KeyRepositoryImpl implements KeyRepositoryCustom {
 
 	@Autowired
 	MongoTemplate mongoOps;
 
+	// In-memory structures (token cache, token filter) kept in step with the
+	// collection.
+	@Autowired
+	List<KeyChangeListener> listeners;
+
+	@Autowired
+	CountCache countCache;
+
+	private static final int DELETE_BATCH_SIZE = 1000;
+
+	private static final int DUPLICATE_KEY = 11000;
+
 	@Override
 	public void saveKey(Key key) {
 		mongoOps.insert(key);
+		for (KeyChangeListener listener : listeners) {
+			listener.keySaved(key);
+		}
 		return;
 	}
 
+	@Override
+	public Key upsertKey(Key key) {
+		Query query = new Query(Criteria.where("_id").is(key.getId()));
+
+		// Single round-trip: returns the previous document (if any) so that the
+		// replaced key's tokens can be dropped from the in-memory structures.
+		Key old = mongoOps.findAndModify(query, upsertUpdate(key),
+				new FindAndModifyOptions().upsert(true).returnNew(false), Key.class);
+
+		Key stored = key;
+		if (old != null) {
+			stored = new Key(key.getAuthToken(), key.getRefToken(), key.getUserId(), key.getClientId(),
+					old.getCreated(), key.getAttributes());
+			stored.setModified(key.getModified());
+			for (KeyChangeListener listener : listeners) {
+				listener.keyRemoved(old);
+			}
+		}
+
+		for (KeyChangeListener listener : listeners) {
+			listener.keySaved(stored);
+		}
+		return stored;
+	}
+
+	@Override
+	public List<Key> upsertKeys(List<Key> keys) {
+		if (keys.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// The keys being replaced, read up front (a bulk write doesn't return the
+		// previous documents) so that their tokens can be dropped from the in-memory
+		// structures, and their created timestamps reported.
+		List<String> ids = new ArrayList<>(keys.size());
+		for (Key key : keys) {
+			ids.add(key.getId());
+		}
+		Map<String, Key> previous = new HashMap<>();
+		for (Key old : mongoOps.find(new Query(Criteria.where("_id").in(ids)), Key.class)) {
+			previous.put(old.getId(), old);
+		}
+
+		// Each write only applies to the key as it was read: keys that weren't found
+		// are inserted, and existing ones are only replaced if they still have the
+		// access token read. Either way, a key that changed in between makes the
+		// write fail with a duplicate key error, and it is retried through
+		// upsertKey, which sees the real previous document.
+		BulkOperations bulk = mongoOps.bulkOps(BulkMode.UNORDERED, Key.class);
+		for (Key key : keys) {
+			Key old = previous.get(key.getId());
+			if (old == null) {
+				bulk.insert(key);
+			} else {
+				bulk.upsert(new Query(Criteria.where("_id").is(key.getId()).and("authToken.value")
+						.is(old.getAuthToken() == null ? null : old.getAuthToken().getValue())), upsertUpdate(key));
+			}
+		}
+
+		// Unordered, so one failed write doesn't stop the others.
+		BulkWriteResult result;
+		Set<Integer> failed = new HashSet<>();
+		Set<Integer> conflicts = new HashSet<>();
+		try {
+			result = bulk.execute();
+		} catch (BulkOperationException e) {
+			result = e.getResult();
+			for (BulkWriteError error : e.getErrors()) {
+				if (error.getCode() == DUPLICATE_KEY) {
+					conflicts.add(error.getIndex());
+				} else {
+					failed.add(error.getIndex());
+				}
+			}
+		}
+
+		// Replacements that ended up inserting: the key read was removed in the
+		// meantime (and that removal already notified).
+		Set<Integer> inserted = new HashSet<>();
+		for (BulkWriteUpsert upsert : result.getUpserts()) {
+			inserted.add(upsert.getIndex());
+		}
+
+		List<Key> stored = new ArrayList<>(keys.size());
+		for (int i = 0; i < keys.size(); ++i) {
+			Key key = keys.get(i);
+			if (failed.contains(i)) {
+				stored.add(null);
+				continue;
+			}
+			if (conflicts.contains(i)) {
+				stored.add(retryUpsert(key));
+				continue;
+			}
+
+			Key old = inserted.contains(i) ? null : previous.get(key.getId());
+			Key saved = key;
+			if (old != null) {
+				saved = new Key(key.getAuthToken(), key.getRefToken(), key.getUserId(), key.getClientId(),
+						old.getCreated(), key.getAttributes());
+				saved.setModified(key.getModified());
+				for (KeyChangeListener listener : listeners) {
+					listener.keyRemoved(old);
+				}
+			}
+			for (KeyChangeListener listener : listeners) {
+				listener.keySaved(saved);
+			}
+			stored.add(saved);
+		}
+		return stored;
+	}
+
+	// Key retryUpsert(Key key)
+	// Writes a key whose bulk write conflicted with a concurrent change. Returns
+	// null if that fails too.
+	private Key retryUpsert(Key key) {
+		try {
+			return upsertKey(key);
+		} catch (DataAccessException e) {
+			return null;
+		}
+	}
+
+	// Update upsertUpdate(Key key)
+	// Sets every field of the passed key, except for its created timestamp if the
+	// key already exists.
+	private static Update upsertUpdate(Key key) {
+		return new Update().set("authToken", key.getAuthToken()).set("refToken", key.getRefToken())
+				.set("userId", key.getUserId()).set("clientId", key.getClientId())
+				.set("attributes", key.getAttributes()).set("modified", key.getModified())
+				.set("userIdLower", key.getUserIdLower()).set("clientIdLower", key.getClientIdLower())
+				.set("attributesLower", key.getAttributesLower())
+				.setOnInsert("created", key.getCreated()).setOnInsert("_class", Key.class.getName());
+	}
+
+	@Override
+	public Key rotateTokens(Key key, OAuth2AccessToken authToken, OAuth2RefreshToken refToken) {
+		// Compare-and-set on the refresh token value: of two concurrent refreshes
+		// with the same token, only the first matches.
+		Query query = new Query(
+				Criteria.where("_id").is(key.getId()).and("refToken.value").is(key.getRefToken().getValue()));
+		Update update = new Update().set("authToken", authToken).set("refToken", refToken).set("modified",
+				Now.seconds());
+
+		Key rotated = mongoOps.findAndModify(query, update, new FindAndModifyOptions().returnNew(true), Key.class);
+		if (rotated == null) {
+			return null;
+		}
+
+		for (KeyChangeListener listener : listeners) {
+			listener.keyRemoved(key);
+		}
+		for (KeyChangeListener listener : listeners) {
+			listener.keySaved(rotated);
+		}
+		return rotated;
+	}
+
 	@Override
 	public void removeKey(Key key) {
-		mongoOps.remove(key);
+		// Only removes the key if it still has the access token the caller saw: if
+		// it was replaced in the meantime, the replacement is left alone. The
+		// listeners are told about the document actually removed, and only if this
+		// call removed it (so a token is never dropped from them twice).
+		Key removed = mongoOps.findAndRemove(new Query(Criteria.where("_id").is(key.getId()).and("authToken.value")
+				.is(key.getAuthToken() == null ? null : key.getAuthToken().getValue())), Key.class);
+		if (removed == null) {
+			return;
+		}
+
+		for (KeyChangeListener listener : listeners) {
+			listener.keyRemoved(removed);
+		}
+	}
+
+	@Override
+	public long deleteAllByUserId(String userId) {
+		return deleteAll(Criteria.where("userId").is(userId));
+	}
+
+	@Override
+	public long deleteAllByClientId(String clientId) {
+		return deleteAll(Criteria.where("clientId").is(clientId));
+	}
+
+	@Override
+	public long deleteAllByAgencyCode(String agencyCode) {
+		return deleteAll(Criteria.where("attributes.agencyCode").is(agencyCode));
+	}
+
+	// long deleteAll(Criteria criteria)
+	// Removes every key matching the criteria, in batches: each batch reads the
+	// IDs and access token values of up to DELETE_BATCH_SIZE matching keys, and
+	// removes exactly those with a single delete (see removeBatch), so a key
+	// inserted or replaced in between is picked up by a later batch rather than
+	// removed unseen. Repeats until nothing matches.
+	private long deleteAll(Criteria criteria) {
+		long count = 0;
+		while (true) {
+			Query batch = new Query(criteria).limit(DELETE_BATCH_SIZE);
+			batch.fields().include("_id").include("authToken.value");
+			List<Key> found = mongoOps.find(batch, Key.class);
+			if (found.isEmpty()) {
+				return count;
+			}
+			count += removeBatch(found, criteria);
+		}
+	}
+
+	// int removeBatch(List<Key> found, Criteria criteria)
+	// Removes, with one delete, each of the passed keys that still has the same
+	// access token value and still matches the criteria, and notifies the
+	// listeners once for the batch. Returns the number of keys removed.
+	// A delete only reports how many documents it removed. If that is fewer than
+	// were read, the keys still there are read back: the rest are gone, and if
+	// their number matches they were all removed by this call. Otherwise some of
+	// them were removed by a concurrent call (which notified them itself), and
+	// the listeners are told they were possibly removed (see KeyChangeListener).
+	private int removeBatch(List<Key> found, Criteria criteria) {
+		int removed = mongoOps.remove(new Query(new Criteria().andOperator(exactly(found), criteria)), Key.class)
+				.getN();
+		if (removed == 0) {
+			return 0;
+		}
+
+		List<Key> gone = found;
+		if (removed < found.size()) {
+			Query left = new Query(exactly(found));
+			left.fields().include("_id").include("authToken.value");
+			Set<String> remaining = new HashSet<>();
+			for (Key key : mongoOps.find(left, Key.class)) {
+				remaining.add(key.getId());
+			}
+			gone = new ArrayList<>(found.size());
+			for (Key key : found) {
+				if (!remaining.contains(key.getId())) {
+					gone.add(key);
+				}
+			}
+		}
+
+		for (KeyChangeListener listener : listeners) {
+			if (gone.size() == removed) {
+				listener.keysRemoved(gone);
+			} else {
+				listener.keysPossiblyRemoved(gone);
+			}
+		}
+		return removed;
+	}
+
+	// Criteria exactly(List<Key> keys)
+	// Matches the passed keys, each only while it still has the same access token
+	// value.
+	private static Criteria exactly(List<Key> keys) {
+		Criteria[] pairs = new Criteria[keys.size()];
+		for (int i = 0; i < pairs.length; ++i) {
+			Key key = keys.get(i);
+			pairs[i] = Criteria.where("_id").is(key.getId()).and("authToken.value")
+					.is(key.getAuthToken() == null ? null : key.getAuthToken().getValue());
+		}
+		return new Criteria().orOperator(pairs);
+	}
+
+	@Override
+	public int deleteExpired(long now, int limit) {
+		Query batch = new Query(expiredAt(now)).limit(limit);
+		batch.fields().include("_id").include("authToken.value");
+		return removeExpired(mongoOps.find(batch, Key.class), now);
+	}
+
+	@Override
+	public int deleteExpired(List<Key> keys, long now) {
+		return removeExpired(keys, now);
+	}
+
+	// Criteria expiredAt(long now)
+	// Both tokens expired (or no refresh token at all), as in the find endpoints'
+	// 410 check.
+	private static Criteria expiredAt(long now) {
+		return Criteria.where("authToken.expiration").lt(now).and("refToken.expiration").not().gte(now);
+	}
+
+	// int removeExpired(List<Key> found, long now)
+	// Removes those of the passed keys that are still expired and still have the
+	// access token value they were read with, one delete per DELETE_BATCH_SIZE
+	// keys (see removeBatch).
+	private int removeExpired(List<Key> found, long now) {
+		int removed = 0;
+		for (int i = 0; i < found.size(); i += DELETE_BATCH_SIZE) {
+			removed += removeBatch(found.subList(i, Math.min(found.size(), i + DELETE_BATCH_SIZE)), expiredAt(now));
+		}
+		return removed;
 	}
 
 	@Override
 	public void drop() {
 
 		mongoOps.dropCollection("apikeystore");
+		for (KeyChangeListener listener : listeners) {
+			listener.keysCleared();
+		}
+	}
+
+	@Override
+	public Page<DBObject> findAllProjected(Predicate predicate, Pageable pageable, FieldProjection projection) {
+		final DBObject filter = toFilter(predicate);
+
+		Query query = new BasicQuery(filter, projection.getFields()).with(pageable);
+		List<DBObject> content = mongoOps.find(query, DBObject.class, "apikeystore");
+		for (DBObject row : content) {
+			projection.complete(row);
+		}
+
+		// Count only when the page doesn't already determine the total.
+		return PageableExecutionUtils.getPage(content, pageable,
+				() -> mongoOps.count(new BasicQuery(filter), "apikeystore"));
+	}
+
+	@Override
+	public Slice<Object> findAllSlice(Predicate predicate, Pageable pageable, FieldProjection projection) {
+		DBObject filter = toFilter(predicate);
+
+		// One extra row tells whether there is a next page, without a count.
+		Query query = new BasicQuery(filter, projection == null ? null : projection.getFields()).with(pageable)
+				.limit(pageable.getPageSize() + 1);
+		List<Object> content = read(mongoOps.find(query, DBObject.class, "apikeystore"), projection);
+
+		boolean hasNext = content.size() > pageable.getPageSize();
+		if (hasNext) {
+			content = content.subList(0, pageable.getPageSize());
+		}
+		return new SliceImpl<Object>(content, pageable, hasNext);
+	}
+
+	@Override
+	public Page<Object> findAllCachedTotal(Predicate predicate, Pageable pageable, FieldProjection projection) {
+		final DBObject filter = toFilter(predicate);
+
+		Query query = new BasicQuery(filter, projection == null ? null : projection.getFields()).with(pageable);
+		List<Object> content = read(mongoOps.find(query, DBObject.class, "apikeystore"), projection);
+
+		return PageableExecutionUtils.getPage(content, pageable, () -> countCache.get(filter.toString(),
+				() -> mongoOps.count(new BasicQuery(filter), "apikeystore")));
+	}
+
+	@Override
+	public CursorPage findAllAfter(Predicate predicate, Sort sort, int size, String after, boolean total,
+			FieldProjection projection) {
+		DBObject filter = toFilter(predicate);
+		sort = KeysetCursor.withTieBreak(sort);
+
+		DBObject query = filter;
+		if (after != null && !after.isEmpty()) {
+			BasicDBList and = new BasicDBList();
+			and.add(filter);
+			and.add(KeysetCursor.after(sort, KeysetCursor.decode(after, sort)));
+			query = new BasicDBObject("$and", and);
+		}
+
+		// The sort keys have to be fetched to build the next cursor, even if they
+		// aren't part of the projection; they're stripped again afterwards.
+		DBObject fields = null;
+		List<String> extraPaths = new ArrayList<>();
+		if (projection != null) {
+			fields = projection.getFields();
+			for (Order order : sort) {
+				String path = KeysetCursor.path(order);
+				if (!path.equals("_id") && !covered(fields, path)) {
+					fields.put(path, 1);
+					extraPaths.add(path);
+				}
+			}
+		}
+
+		// One extra row tells whether there is a next page.
+		Query find = new BasicQuery(query, fields).with(sort).limit(size + 1);
+		List<DBObject> rows = mongoOps.find(find, DBObject.class, "apikeystore");
+
+		String next = null;
+		if (rows.size() > size) {
+			rows = rows.subList(0, size);
+			next = KeysetCursor.encode(rows.get(size - 1), sort);
+		}
+
+		for (DBObject row : rows) {
+			for (String path : extraPaths) {
+				strip(row, path);
+			}
+		}
+		List<Object> content = read(rows, projection);
+
+		Long totalElements = total ? mongoOps.count(new BasicQuery(filter), "apikeystore") : null;
+		return new CursorPage(content, size, next, totalElements);
+	}
+
+	// List<Object> read(List<DBObject> rows, FieldProjection projection)
+	// Turns raw result documents into keys, or into finished projected documents
+	// if there is a projection.
+	private List<Object> read(List<DBObject> rows, FieldProjection projection) {
+		List<Object> content = new ArrayList<>(rows.size());
+		for (DBObject row : rows) {
+			if (projection == null) {
+				content.add(mongoOps.getConverter().read(Key.class, row));
+			} else {
+				projection.complete(row);
+				content.add(row);
+			}
+		}
+		return content;
+	}
+
+	// DBObject toFilter(Predicate predicate)
+	// Translates a Querydsl predicate over keys into a Mongo query document.
+	private DBObject toFilter(Predicate predicate) {
+		if (predicate == null) {
+			return new BasicDBObject();
+		}
+		return new SpringDataMongodbQuery<Key>(mongoOps, Key.class).where(predicate).asDBObject();
+	}
+
+	// boolean covered(DBObject fields, String path)
+	// Returns true if the projection already includes the path or a parent of it.
+	private boolean covered(DBObject fields, String path) {
+		for (String included : fields.keySet()) {
+			if (path.equals(included) || path.startsWith(included + ".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// void strip(DBObject row, String path)
+	// Removes a dotted path from a document, along with any parent sub-documents
+	// left empty.
+	private void strip(DBObject row, String path) {
+		int dot = path.indexOf('.');
+		if (dot < 0) {
+			row.removeField(path);
+			return;
+		}
+		Object child = row.get(path.substring(0, dot));
+		if (child instanceof DBObject) {
+			strip((DBObject) child, path.substring(dot + 1));
+			if (((DBObject) child).keySet().isEmpty()) {
+				row.removeField(path.substring(0, dot));
+			}
+		}
 	}
 }
@@ -0,0 +1,150 @@
+package apikeystore.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Sort.Order;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+// Keyset pagination support. A cursor is the list of sort key values of the last
+// document on a page (with _id last, as a tie-breaker), serialized as an opaque
+// URL-safe string. The next page is then everything strictly past those values
+// in sort order, which an index can seek to directly instead of skipping over
+// all the preceding documents.
+public class KeysetCursor {
+
+	private KeysetCursor() {
+	}
+
+	// Sort withTieBreak(Sort sort)
+	// Returns the passed sort with _id appended (if not already sorted on), so
+	// that the sort order is total.
+	public static Sort withTieBreak(Sort sort) {
+		Sort idSort = new Sort(Direction.ASC, "_id");
+		if (sort == null) {
+			return idSort;
+		}
+		if (sort.getOrderFor("_id") != null || sort.getOrderFor("id") != null) {
+			return sort;
+		}
+		return sort.and(idSort);
+	}
+
+	// String encode(DBObject row, Sort sort)
+	// Returns the cursor pointing just past the passed document.
+	public static String encode(DBObject row, Sort sort) {
+		BasicDBList values = new BasicDBList();
+		for (Order order : sort) {
+			values.add(valueAt(row, path(order)));
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(JSON.serialize(values).getBytes(StandardCharsets.UTF_8));
+	}
+
+	// List<Object> decode(String cursor, Sort sort)
+	// Returns the sort key values stored in the passed cursor. Throws an
+	// IllegalArgumentException if the cursor is malformed or doesn't match the
+	// sort. Only scalar values are accepted, since the values end up in the seek
+	// query: a document (e.g. {"$where": ...}) or an array would let a crafted
+	// cursor inject operators into it.
+	public static List<Object> decode(String cursor, Sort sort) {
+		Object parsed;
+		try {
+			parsed = JSON.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Malformed cursor.", e);
+		}
+
+		if (!(parsed instanceof BasicDBList) || ((BasicDBList) parsed).size() != orders(sort).size()) {
+			throw new IllegalArgumentException("Cursor does not match the sort order.");
+		}
+		List<Object> values = new ArrayList<Object>((BasicDBList) parsed);
+		for (Object value : values) {
+			if (!isScalar(value)) {
+				throw new IllegalArgumentException("Malformed cursor.");
+			}
+		}
+		return values;
+	}
+
+	// DBObject after(Sort sort, List<Object> values)
+	// Returns the query selecting every document that sorts strictly after the
+	// passed sort key values:
+	// (k1 > v1) or (k1 = v1 and k2 > v2) or ...
+	public static DBObject after(Sort sort, List<Object> values) {
+		List<Order> orders = orders(sort);
+
+		BasicDBList or = new BasicDBList();
+		for (int i = 0; i < orders.size(); ++i) {
+			BasicDBList and = new BasicDBList();
+			for (int j = 0; j < i; ++j) {
+				and.add(new BasicDBObject(path(orders.get(j)), values.get(j)));
+			}
+			and.add(beyond(path(orders.get(i)), orders.get(i).isAscending(), values.get(i)));
+			or.add(and.size() == 1 ? and.get(0) : new BasicDBObject("$and", and));
+		}
+		return new BasicDBObject("$or", or);
+	}
+
+	// Object valueAt(DBObject row, String path)
+	// Returns the value at a dotted path in the passed document, or null if absent.
+	public static Object valueAt(DBObject row, String path) {
+		Object current = row;
+		for (String part : path.split("\\.")) {
+			if (!(current instanceof DBObject)) {
+				return null;
+			}
+			current = ((DBObject) current).get(part);
+		}
+		return current;
+	}
+
+	// String path(Order order)
+	// Returns the document path for a sort order.
+	public static String path(Order order) {
+		return order.getProperty().equals("id") ? "_id" : order.getProperty();
+	}
+
+	// List<Order> orders(Sort sort)
+	private static List<Order> orders(Sort sort) {
+		List<Order> orders = new ArrayList<>();
+		for (Order order : sort) {
+			orders.add(order);
+		}
+		return orders;
+	}
+
+	// boolean isScalar(Object value)
+	private static boolean isScalar(Object value) {
+		return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+				|| value instanceof ObjectId;
+	}
+
+	// DBObject beyond(String path, boolean ascending, Object value)
+	// Returns the condition for a value strictly past the passed one. Null (or a
+	// missing field) sorts before every other value, so it needs special cases:
+	// "after null" ascending is any non-null value, "after null" descending is
+	// nothing, and anything descending may be followed by nulls.
+	private static DBObject beyond(String path, boolean ascending, Object value) {
+		if (value == null) {
+			return ascending ? new BasicDBObject(path, new BasicDBObject("$ne", null))
+					: new BasicDBObject(path, new BasicDBObject("$lt", null));
+		}
+		if (ascending) {
+			return new BasicDBObject(path, new BasicDBObject("$gt", value));
+		}
+		BasicDBList or = new BasicDBList();
+		or.add(new BasicDBObject(path, new BasicDBObject("$lt", value)));
+		or.add(new BasicDBObject(path, null));
+		return new BasicDBObject("$or", or);
+	}
+}
@@ -0,0 +1,281 @@
+package apikeystore.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.model.RevocationPage;
+
+// Incrementally pollable feed of revoked access tokens, so validators that cache
+// tokens (or validate stateless ones) can learn of revocations with small,
+// frequent polls. Every access token that stops being valid early -- its key was
+// removed, replaced or refreshed -- is given the next sequence number and kept
+// (as a SHA-256 hash of the token value) in a capped collection holding the last
+// revocationFeedSize revocations:
+// { _id: sequence, hash } (or { _id: sequence, cleared: true } when every key
+// was removed)
+//
+// The collection is shared by every instance using the database, so sequence
+// numbers are global and a poll can be answered by any instance, whichever one
+// issued the cursor. Each instance records its own revocations (remote ones
+// aren't replayed to the feed; see KeyEventLog). Sequence numbers are taken
+// optimistically: the next one after the newest in the collection, and if
+// another instance got there first, the duplicate _id makes the insert fail and
+// the rest are retried with fresh numbers.
+//
+// A poller whose cursor has dropped out of the collection, is unknown to it, or
+// predates a removal of every key, is told to reset.
+@Component
+public class RevocationFeed implements KeyChangeListener {
+
+	@Autowired
+	private MongoTemplate mongoOps;
+
+	@Autowired
+	private YAMLConfig config;
+
+	private static final Logger logger = LoggerFactory.getLogger(RevocationFeed.class);
+
+	static final String COLLECTION = "apikeystore_revocations";
+
+	private static final int MAX_PAGE_SIZE = 10000;
+
+	// Room per revocation in the capped collection; a revocation document takes
+	// well under this.
+	private static final int DOCUMENT_BYTES = 128;
+
+	// Attempts at numbering a set of revocations when other instances keep taking
+	// the same sequence numbers.
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	@PostConstruct
+	public void init() {
+		if (mongoOps.collectionExists(COLLECTION)) {
+			return;
+		}
+		long max = Math.max(1, config.getRevocationFeedSize());
+		try {
+			mongoOps.createCollection(COLLECTION,
+					new CollectionOptions((int) Math.min(Integer.MAX_VALUE, Math.max(4096, max * DOCUMENT_BYTES)),
+							(int) Math.min(Integer.MAX_VALUE, max), true));
+		} catch (RuntimeException e) {
+			// Most likely created by another instance in the meantime.
+			logger.debug("Could not create {}: {}", COLLECTION, e.getMessage());
+		}
+	}
+
+	// void revoke(List<String> authValues)
+	// Appends revoked access tokens to the feed. A failure is logged but doesn't
+	// fail the write that revoked them.
+	public void revoke(List<String> authValues) {
+		List<DBObject> docs = new ArrayList<>(authValues.size());
+		for (String authValue : authValues) {
+			docs.add(new BasicDBObject("hash", hash(authValue)));
+		}
+		append(docs);
+	}
+
+	// RevocationPage since(String cursor, int limit)
+	// Returns up to 'limit' revocations recorded after the passed cursor (the
+	// 'sequence' of the previous page, or 0 for the start of the feed), oldest
+	// first.
+	public RevocationPage since(String cursor, int limit) {
+		limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+		long since = sequenceOf(cursor);
+		if (since < 0) {
+			return reset();
+		}
+
+		// Normally the first revocation read is the next one in sequence; only if it
+		// isn't (or there are none) is the collection checked for where the cursor
+		// stands.
+		List<DBObject> docs = after(since, limit + 1);
+		long next = docs.isEmpty() ? -1 : sequence(docs.get(0));
+		if (next != since + 1) {
+			long[] bounds = bounds();
+			if (since > bounds[1] || since < bounds[0] - 1) {
+				// Unknown (e.g. the collection was dropped), or overwritten since.
+				return reset();
+			}
+		}
+
+		int end = Math.min(limit, docs.size());
+		List<String> revoked = new ArrayList<>(end);
+		long last = since;
+		for (DBObject doc : docs.subList(0, end)) {
+			if (Boolean.TRUE.equals(doc.get("cleared"))) {
+				return reset();
+			}
+			revoked.add((String) doc.get("hash"));
+			last = sequence(doc);
+		}
+		return new RevocationPage(Long.toString(last), false, docs.size() > limit, revoked);
+	}
+
+	// RevocationPage reset()
+	// Returns a reset page positioned at the newest revocation.
+	private RevocationPage reset() {
+		return new RevocationPage(Long.toString(bounds()[1]), true, false, new ArrayList<>());
+	}
+
+	// long sequenceOf(String cursor)
+	// Returns the sequence number of a cursor, or -1 if it is malformed.
+	private static long sequenceOf(String cursor) {
+		try {
+			return cursor == null ? -1 : Long.parseLong(cursor);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static long sequence(DBObject doc) {
+		return ((Number) doc.get("_id")).longValue();
+	}
+
+	// void append(List<DBObject> docs)
+	// Numbers and inserts the passed revocation documents, retrying those that
+	// lost their sequence numbers to another instance.
+	private void append(List<DBObject> docs) {
+		int done = 0;
+		try {
+			for (int attempt = 0; attempt < MAX_ATTEMPTS && done < docs.size(); ++attempt) {
+				List<DBObject> rest = docs.subList(done, docs.size());
+				long next = bounds()[1] + 1;
+				for (DBObject doc : rest) {
+					doc.put("_id", next++);
+				}
+				done += insert(rest);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Could not record {} revocations: {}", docs.size() - done, e.getMessage());
+			return;
+		}
+		if (done < docs.size()) {
+			logger.warn("Could not number {} revocations after {} attempts.", docs.size() - done, MAX_ATTEMPTS);
+		}
+	}
+
+	// Storage, overridden in tests.
+
+	// List<DBObject> after(long since, int limit)
+	// Returns up to 'limit' documents with sequence numbers past the passed one, in
+	// order.
+	List<DBObject> after(long since, int limit) {
+		try (DBCursor cursor = mongoOps.getCollection(COLLECTION)
+				.find(new BasicDBObject("_id", new BasicDBObject("$gt", since)))
+				.sort(new BasicDBObject("_id", 1)).limit(limit)) {
+			return cursor.toArray();
+		}
+	}
+
+	// long[] bounds()
+	// Returns the oldest and newest sequence numbers in the collection (both 0 if
+	// it is empty).
+	long[] bounds() {
+		DBCollection revocations = mongoOps.getCollection(COLLECTION);
+		List<DBObject> oldest = first(revocations, 1);
+		if (oldest.isEmpty()) {
+			return new long[] { 0, 0 };
+		}
+		List<DBObject> newest = first(revocations, -1);
+		return new long[] { sequence(oldest.get(0)), sequence(newest.isEmpty() ? oldest.get(0) : newest.get(0)) };
+	}
+
+	private static List<DBObject> first(DBCollection revocations, int order) {
+		try (DBCursor cursor = revocations.find().sort(new BasicDBObject("_id", order)).limit(1)) {
+			return cursor.toArray();
+		}
+	}
+
+	// int insert(List<DBObject> docs)
+	// Inserts the passed documents in order, stopping at the first whose sequence
+	// number is taken. Returns the number inserted.
+	int insert(List<DBObject> docs) {
+		BulkWriteOperation bulk = mongoOps.getCollection(COLLECTION).initializeOrderedBulkOperation();
+		for (DBObject doc : docs) {
+			bulk.insert(doc);
+		}
+		try {
+			bulk.execute();
+			return docs.size();
+		} catch (BulkWriteException e) {
+			BulkWriteError error = e.getWriteErrors().isEmpty() ? null : e.getWriteErrors().get(0);
+			if (error == null || error.getCode() != DUPLICATE_KEY) {
+				throw e;
+			}
+			return error.getIndex();
+		}
+	}
+
+	@Override
+	public void keySaved(Key key) {
+		// A replaced key's old token is revoked through keyRemoved().
+	}
+
+	@Override
+	public void keyRemoved(Key key) {
+		keysRemoved(Collections.singletonList(key));
+	}
+
+	@Override
+	public void keysRemoved(List<Key> keys) {
+		List<String> authValues = new ArrayList<>(keys.size());
+		for (Key key : keys) {
+			if (key.getAuthToken() != null && key.getAuthToken().getValue() != null) {
+				authValues.add(key.getAuthToken().getValue());
+			}
+		}
+		if (!authValues.isEmpty()) {
+			revoke(authValues);
+		}
+	}
+
+	@Override
+	public void keysPossiblyRemoved(List<Key> keys) {
+		// A token listed twice is harmless to pollers.
+		keysRemoved(keys);
+	}
+
+	@Override
+	public void keysCleared() {
+		append(Collections.<DBObject>singletonList(new BasicDBObject("cleared", true)));
+	}
+
+	// String hash(String authValue)
+	// Returns the unpadded base64url SHA-256 hash of an access token value, as
+	// published in the feed.
+	public static String hash(String authValue) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(authValue.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package apikeystore.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+
+	private CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+
+	// Every added value should be reported as (possibly) present.
+	@Test
+	public void testNoFalseNegatives() {
+		for (int i = 0; i < 10000; ++i) {
+			filter.add("Test_Access_Token_" + i);
+		}
+		for (int i = 0; i < 10000; ++i) {
+			assertTrue(filter.mightContain("Test_Access_Token_" + i));
+		}
+	}
+
+	// Removing a value should clear it without disturbing the others.
+	@Test
+	public void testAddRemove() {
+		filter.add("Test_Access_Token");
+		filter.add("Test_Access_Token_2");
+		assertTrue(filter.mightContain("Test_Access_Token"));
+
+		filter.remove("Test_Access_Token");
+		assertFalse(filter.mightContain("Test_Access_Token"));
+		assertTrue(filter.mightContain("Test_Access_Token_2"));
+	}
+
+	// The false positive rate at the expected load should be near the configured
+	// rate (allowing generous slack).
+	@Test
+	public void testFalsePositiveRate() {
+		for (int i = 0; i < 10000; ++i) {
+			filter.add("Test_Access_Token_" + i);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; ++i) {
+			if (filter.mightContain("Unknown_Token_" + i)) {
+				++falsePositives;
+			}
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < 300);
+	}
+}
@@ -0,0 +1,85 @@
+package apikeystore.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	private long start = 1500000000L;
+
+	// Every entry should fire exactly at its expiration, at whichever level it
+	// was first placed (including past the top level's range).
+	@Test
+	public void testFiresOnTime() {
+		TimingWheel<Long> wheel = new TimingWheel<>(start, 1000);
+		long[] delays = { 1, 2, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 300000, 16777216, 20000000 };
+		for (long delay : delays) {
+			wheel.schedule(delay, start + delay);
+		}
+
+		Map<Long, Long> firedAt = new HashMap<>();
+		long[] clock = { start };
+		// Advance in uneven steps, recording the wheel time at which each fires.
+		while (clock[0] < start + 20000001) {
+			clock[0] = Math.min(start + 20000001, clock[0] + 997);
+			wheel.advance(clock[0], (item, expiration) -> firedAt.put(item, wheel.now()));
+		}
+
+		for (long delay : delays) {
+			assertEquals("Delay " + delay, Long.valueOf(start + delay), firedAt.get(delay));
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	// An expiration already in the past fires on the next tick.
+	@Test
+	public void testPastExpiration() {
+		TimingWheel<String> wheel = new TimingWheel<>(start, 10);
+		wheel.schedule("past", start - 100);
+		assertEquals(1, wheel.advance(start + 1, (item, expiration) -> {
+		}));
+	}
+
+	// A full wheel refuses new entries.
+	@Test
+	public void testBounded() {
+		TimingWheel<Integer> wheel = new TimingWheel<>(start, 2);
+		wheel.schedule(1, start + 10);
+		wheel.schedule(2, start + 10);
+		assertNull(wheel.schedule(3, start + 10));
+		assertEquals(2, wheel.size());
+		assertEquals(1, wheel.dropped());
+	}
+
+	// A cancelled entry never fires and frees its place, at any level and
+	// position in its slot's list.
+	@Test
+	public void testCancel() {
+		TimingWheel<Integer> wheel = new TimingWheel<>(start, 4);
+		TimingWheel.Node<Integer> first = wheel.schedule(1, start + 10);
+		TimingWheel.Node<Integer> middle = wheel.schedule(2, start + 10);
+		wheel.schedule(3, start + 10);
+		TimingWheel.Node<Integer> far = wheel.schedule(4, start + 5000);
+		assertTrue(wheel.cancel(middle));
+		assertTrue(wheel.cancel(far));
+		assertFalse(wheel.cancel(far));
+		assertTrue(wheel.cancel(first));
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.schedule(5, start + 10) != null);
+
+		Map<Integer, Long> fired = new HashMap<>();
+		wheel.advance(start + 10000, (item, expiration) -> fired.put(item, expiration));
+		assertEquals(2, fired.size());
+		assertEquals(Long.valueOf(start + 10), fired.get(3));
+		assertEquals(Long.valueOf(start + 10), fired.get(5));
+		assertFalse(wheel.cancel(first));
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,126 @@
+package apikeystore.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import apikeystore.clock.ManualEpochClock;
+import apikeystore.clock.Now;
+import apikeystore.clock.SystemEpochClock;
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+
+public class TokenCacheTest {
+
+	private static final long START = 1500000000L;
+
+	private ManualEpochClock clock = new ManualEpochClock(START);
+
+	private YAMLConfig config = new YAMLConfig();
+	private TokenCache cache = new TokenCache();
+
+	@Before
+	public void setUp() {
+		Now.use(clock);
+		config.setTokenCacheMaxSize(10);
+		ReflectionTestUtils.setField(cache, "config", config);
+		cache.init();
+	}
+
+	@After
+	public void tearDown() {
+		Now.use(SystemEpochClock.INSTANCE);
+	}
+
+	private Key key(String userId, String authValue, long expiration) {
+		return new Key(new OAuth2AccessToken(authValue, expiration, null), new OAuth2RefreshToken(userId), userId,
+				"client", -1, null);
+	}
+
+	// A cached key is returned until it is invalidated.
+	@Test
+	public void testGetAndInvalidate() {
+		Key key = key("user", "token", START + 100);
+		cache.put(key, cache.stamp());
+		assertSame(key, cache.get("token"));
+
+		cache.keyRemoved(key);
+		assertNull(cache.get("token"));
+	}
+
+	// A key looked up before an invalidation isn't cached after it, since it may
+	// be the very key that was just revoked.
+	@Test
+	public void testStampGuard() {
+		Key key = key("user", "token", START + 100);
+		long stamp = cache.stamp();
+		cache.keyRemoved(key);
+		cache.put(key, stamp);
+		assertNull(cache.get("token"));
+		assertEquals(0L, (long) cache.stats().get("size"));
+
+		cache.put(key, cache.stamp());
+		assertSame(key, cache.get("token"));
+	}
+
+	// Caching a key under a new access token drops the entry for its old one.
+	@Test
+	public void testReplacedToken() {
+		Key key = key("user", "token", START + 100);
+		Key replacement = key("user", "token2", START + 100);
+		cache.put(key, cache.stamp());
+		cache.put(replacement, cache.stamp());
+
+		assertNull(cache.get("token"));
+		assertSame(replacement, cache.get("token2"));
+		assertEquals(1L, (long) cache.stats().get("size"));
+
+		// Invalidating by key finds the entry through its ID.
+		cache.invalidate(key("user", "other", START + 100));
+		assertNull(cache.get("token2"));
+	}
+
+	// The cache never grows past its bound.
+	@Test
+	public void testTrim() {
+		for (int i = 0; i < 25; ++i) {
+			cache.put(key("user" + i, "token" + i, START + 100), cache.stamp());
+			assertTrue(cache.stats().get("size") <= 10);
+		}
+		assertEquals("token24", cache.get("token24").getAuthToken().getValue());
+		assertTrue(cache.stats().get("evictions") >= 15);
+		assertEquals(cache.stats().get("size"), cache.stats().get("expiriesPending"));
+	}
+
+	// Dropping entries unschedules their expiries.
+	@Test
+	public void testExpiriesCancelled() {
+		cache.put(key("user1", "token1", START + 100), cache.stamp());
+		cache.put(key("user2", "token2", START + 100), cache.stamp());
+		cache.put(key("user1", "token3", START + 100), cache.stamp());
+		cache.put(key("user2", "token2", START + 100), cache.stamp());
+		assertEquals(2L, (long) cache.stats().get("expiriesPending"));
+		cache.invalidate("token3");
+		assertEquals(1L, (long) cache.stats().get("expiriesPending"));
+		cache.clear();
+		assertEquals(0L, (long) cache.stats().get("expiriesPending"));
+	}
+
+	// Entries are evicted once their access token expires.
+	@Test
+	public void testExpiry() {
+		cache.put(key("user", "token", START + 10), cache.stamp());
+		clock.advance(11);
+		cache.expire();
+		assertEquals(0L, (long) cache.stats().get("size"));
+		assertNull(cache.get("token"));
+	}
+}
@@ -0,0 +1,108 @@
+package apikeystore.clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.querydsl.core.types.Predicate;
+
+import apikeystore.cache.TimingWheel;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+import apikeystore.model.QKey;
+import apikeystore.repository.FilterPlan;
+
+public class EpochClockTest {
+
+	private ManualEpochClock clock = new ManualEpochClock(1500000000L);
+
+	@Before
+	public void setUp() {
+		Now.use(clock);
+	}
+
+	@After
+	public void tearDown() {
+		Now.use(SystemEpochClock.INSTANCE);
+	}
+
+	// A new key's tokens should expire exactly at the end of their lifetimes, as
+	// measured by the installed clock: the access token after a day, then the
+	// refresh token after a week.
+	@Test
+	public void testTokenLifetimes() {
+		Key key = new Key(new OAuth2AccessToken("user", null), new OAuth2RefreshToken("user"), "user", "client", -1,
+				null);
+		long start = clock.now();
+		assertEquals(start, key.getCreated());
+		assertEquals(start + 86400, key.getAuthToken().getExpiration());
+		assertEquals(start + 604800, key.getRefToken().getExpiration());
+
+		clock.advance(86400);
+		assertFalse(key.getAuthToken().isExpired());
+		clock.advance(1);
+		assertTrue(key.getAuthToken().isExpired());
+		assertFalse(key.getRefToken().isExpired());
+
+		clock.advance(604800 - 86400);
+		assertTrue(key.getAuthToken().isExpired());
+		assertTrue(key.getRefToken().isExpired());
+
+		Key modified = new Key(key);
+		assertEquals(start, modified.getCreated());
+		assertEquals(clock.now(), modified.getModified());
+	}
+
+	// The expired filters should compare against the installed clock.
+	@Test
+	public void testExpiredFilter() {
+		Map<String, String> params = new HashMap<>();
+		params.put("authTokenExpired", "true");
+		Predicate predicate = FilterPlan.build(params);
+		assertEquals(QKey.key.authToken.expiration.lt(clock.now()), predicate);
+
+		clock.advance(3600);
+		assertEquals(QKey.key.authToken.expiration.lt(clock.now()), FilterPlan.build(params));
+	}
+
+	// Driving an expiry wheel from the clock should fire each token once the clock
+	// has passed its expiration, and not before.
+	@Test
+	public void testExpiryWheel() {
+		TimingWheel<OAuth2AccessToken> wheel = new TimingWheel<>(Now.seconds(), 10);
+		OAuth2AccessToken token = new OAuth2AccessToken("user", null);
+		wheel.schedule(token, token.getExpiration() + 1);
+
+		OAuth2AccessToken[] fired = { null };
+		clock.advance(86400);
+		wheel.advance(Now.seconds(), (item, expiration) -> fired[0] = item);
+		assertNull(fired[0]);
+
+		clock.advance(1);
+		wheel.advance(Now.seconds(), (item, expiration) -> fired[0] = item);
+		assertEquals(token, fired[0]);
+		assertTrue(fired[0].isExpired());
+	}
+
+	// The coarse clock should track the system clock to within a tick.
+	@Test
+	public void testCoarseClock() throws InterruptedException {
+		CoarseEpochClock coarse = new CoarseEpochClock(10).start();
+		try {
+			Thread.sleep(50);
+			long system = SystemEpochClock.INSTANCE.now();
+			assertTrue(Math.abs(coarse.now() - system) <= 1);
+		} finally {
+			coarse.stop();
+		}
+	}
+}
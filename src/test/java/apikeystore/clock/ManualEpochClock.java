@@ -0,0 +1,20 @@
+package apikeystore.clock;
+
+// Clock that only moves when told to, for fast-forwarding tests.
+public class ManualEpochClock implements EpochClock {
+
+	private volatile long seconds;
+
+	public ManualEpochClock(long seconds) {
+		this.seconds = seconds;
+	}
+
+	@Override
+	public long now() {
+		return seconds;
+	}
+
+	public void advance(long by) {
+		seconds += by;
+	}
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -21,11 +23,15 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import apikeystore.controller.KeyController;
 import apikeystore.exception.ATExpiredException;
 import apikeystore.exception.AddFailureException;
@@ -36,10 +42,13 @@ import apikeystore.exception.MissingRequiredParameterException;
 import apikeystore.exception.RTExpiredException;
 import apikeystore.exception.TokenDoesNotExistException;
 import apikeystore.model.Key;
+import apikeystore.model.KeyId;
 import apikeystore.model.KeyRequest;
+import apikeystore.model.KeyResult;
 import apikeystore.model.OAuth2AccessToken;
 import apikeystore.model.OAuth2RefreshToken;
 import apikeystore.model.Resource;
+import apikeystore.model.TokenStatus;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -48,6 +57,9 @@ public class KeyControllerTest {
 	@Autowired(required = true)
 	private KeyController controller;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	private long now = (new Date().getTime()) / 1000;
 	private String uid = "Test_ID_" + now;
 	private String[] verbs = { "GET", "POST", "PUT" };
@@ -324,6 +336,40 @@ public class KeyControllerTest {
 
 	}
 
+	// Add a live key and an expired one, validate their tokens (and an unknown
+	// one) in a single batch, and check the status of each
+	@Test
+	public void testAddAuthenticateBatch() {
+
+		try {
+			controller.addKey(testKey);
+			controller.addKey(expTestKey);
+		} catch (MissingRequiredParameterException e1) {
+			fail("Missing required parameters exception; user ID and client ID should not have been null or empty.");
+			e1.printStackTrace();
+		} catch (AddFailureException e) {
+			fail("Unknown error in add method.");
+			e.printStackTrace();
+		}
+
+		Map<String, TokenStatus> result = null;
+		try {
+			result = controller.authenticateTokens(Arrays.asList("Unknown_" + uid,
+					testKey.getAuthToken().getValue(), expTestKey.getAuthToken().getValue())).getBody();
+		} catch (BadParameterException e) {
+			fail("Bad parameter exception; batch should not be too large.");
+			e.printStackTrace();
+		}
+
+		assertEquals(Arrays.asList("Unknown_" + uid, testKey.getAuthToken().getValue(),
+				expTestKey.getAuthToken().getValue()), Arrays.asList(result.keySet().toArray()));
+		assertEquals(TokenStatus.NOT_FOUND, result.get("Unknown_" + uid));
+		assertEquals(TokenStatus.VALID, result.get(testKey.getAuthToken().getValue()));
+		assertEquals(TokenStatus.GONE, result.get(expTestKey.getAuthToken().getValue()));
+
+		controller.deleteByAuthValue(testKey.getAuthToken().getValue());
+	}
+
 	// Add key, see it in find all results, remove it, don't see it in find all
 	@Test
 	public void testAddFindallRemove() {
@@ -484,6 +530,120 @@ public class KeyControllerTest {
 		fail("Key should have been removed.");
 	}
 
+	// Add keys in a batch (one of them twice, one without a client id), check the
+	// result of each, replace one of them in a second batch, then remove them
+	@Test
+	public void testAddGeneratedBatch() {
+
+		Set<String> verbs = new HashSet<>();
+		verbs.add("GET");
+		Set<Resource> testScope = new HashSet<Resource>();
+		testScope.add(new Resource("samplePath/", verbs));
+
+		KeyRequest creds1 = new KeyRequest(uid, "Test_Client_ID", testScope, atts);
+		KeyRequest creds2 = new KeyRequest(uid, "Test_Client_2_ID", testScope, atts);
+		KeyRequest noCid = new KeyRequest(uid, "", testScope, atts);
+
+		List<KeyResult> results = null;
+		try {
+			results = controller.generateAndAddBatch(Arrays.asList(creds1, noCid, creds2, creds1)).getBody();
+		} catch (BadParameterException e) {
+			fail("Bad parameter exception; batch should not be too large.");
+			e.printStackTrace();
+		} catch (AddFailureException e) {
+			fail("Unknown error in batch add method.");
+			e.printStackTrace();
+		}
+
+		assertEquals(4, results.size());
+		assertEquals(HttpStatus.CREATED.value(), results.get(0).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST.value(), results.get(1).getStatus());
+		assertEquals(HttpStatus.CREATED.value(), results.get(2).getStatus());
+		assertEquals(HttpStatus.CONFLICT.value(), results.get(3).getStatus());
+		assertEquals("Test_Client_2_ID", results.get(2).getKey().getClientId());
+
+		Key first = results.get(0).getKey();
+		try {
+			results = controller.generateAndAddBatch(Arrays.asList(creds1)).getBody();
+		} catch (BadParameterException e) {
+			fail("Bad parameter exception; batch should not be too large.");
+			e.printStackTrace();
+		} catch (AddFailureException e) {
+			fail("Unknown error in batch add method.");
+			e.printStackTrace();
+		}
+
+		Key replaced = results.get(0).getKey();
+		assertEquals(first.getCreated(), replaced.getCreated());
+		assertNotEquals(first.getAuthToken().getValue(), replaced.getAuthToken().getValue());
+
+		try {
+			assertEquals(replaced, controller.find(uid, "Test_Client_ID").getBody());
+		} catch (DoesNotExistException e) {
+			fail("DNE exception; key should exist.");
+			e.printStackTrace();
+		} catch (KeyExpiredException e) {
+			fail("Exp exception; key should not be expired.");
+			e.printStackTrace();
+		} catch (ATExpiredException e) {
+			fail("Unexpected ATExpiredException thrown; key AT should not be expired.");
+			e.printStackTrace();
+		}
+
+		controller.delete(uid, "Test_Client_ID");
+		controller.delete(uid, "Test_Client_2_ID");
+	}
+
+	// Add a live key, an expired one and one with only its access token expired,
+	// get them (and a missing one) in a single batch, and check the result of each
+	@Test
+	public void testAddFindBatch() {
+
+		try {
+			controller.addKey(testKey);
+			controller.addKey(expTestKey);
+			controller.addKey(refTestKey);
+		} catch (MissingRequiredParameterException e1) {
+			fail("Missing required parameters exception; user ID and client ID should not have been null or empty.");
+			e1.printStackTrace();
+		} catch (AddFailureException e) {
+			fail("Unknown error in add method.");
+			e.printStackTrace();
+		}
+
+		JsonNode results = null;
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			controller.findBatch(Arrays.asList(new KeyId(uid, "Missing_Client_ID"),
+					new KeyId(refTestKey.getUserId(), refTestKey.getClientId()),
+					new KeyId(testKey.getUserId(), testKey.getClientId()),
+					new KeyId(expTestKey.getUserId(), expTestKey.getClientId()), new KeyId(uid, null))).getBody()
+					.writeTo(out);
+			results = objectMapper.readTree(out.toByteArray());
+		} catch (BadParameterException e) {
+			fail("Bad parameter exception; batch should not be too large.");
+			e.printStackTrace();
+		} catch (IOException e) {
+			fail("Could not read the batch results: " + e);
+		}
+
+		assertEquals(5, results.size());
+		assertEquals(HttpStatus.NOT_FOUND.value(), results.get(0).get("status").asInt());
+		assertEquals(HttpStatus.UNAUTHORIZED.value(), results.get(1).get("status").asInt());
+		assertEquals(HttpStatus.OK.value(), results.get(2).get("status").asInt());
+		try {
+			assertEquals(testKey, objectMapper.treeToValue(results.get(2).get("key"), Key.class));
+		} catch (IOException e) {
+			fail("Could not read the batch result key: " + e);
+		}
+		assertEquals(HttpStatus.GONE.value(), results.get(3).get("status").asInt());
+		assertFalse(results.get(3).has("key"));
+		assertEquals(HttpStatus.BAD_REQUEST.value(), results.get(4).get("status").asInt());
+
+		controller.delete(testKey.getUserId(), testKey.getClientId());
+		controller.delete(refTestKey.getUserId(), refTestKey.getClientId());
+	}
+
 	// Add three keys (two with the same client id), see them in find all results,
 	// revoke by client id, don't see the keys for that client, remove the remaining
 	// key.
@@ -741,7 +901,7 @@ public class KeyControllerTest {
 		params.put("page", "0");
 		params.put("sortBy", "clientId");
 		params.put("sortOrder", "ASC");
-		params.put("clientId", "Test_Client_ID*");
+		params.put("clientId", "*Test_Client_ID*");
 
 		try {
 			controller.addKey(testKey);
@@ -809,7 +969,7 @@ public class KeyControllerTest {
 		params.put("page", "0");
 		params.put("sortBy", "clientId");
 		params.put("sortOrder", "ASC");
-		params.put("clientId", "Test_Client_ID*");
+		params.put("clientId", "*Test_Client_ID*");
 
 		try {
 			controller.addKey(testKey);
@@ -876,7 +1036,7 @@ public class KeyControllerTest {
 	public void testAddFindallFiltered() {
 
 		Map<String, String> params = new HashMap<>();
-		params.put("clientId", "Test_Client_ID*");
+		params.put("clientId", "*Test_Client_ID*");
 		params.put("userId", "$in:" + uid + ",EX_" + uid + ",Ref_" + uid);
 		params.put("created", "$gt:0");
 		params.put("modified", "$lt:200000000000");
@@ -994,6 +1154,71 @@ public class KeyControllerTest {
 
 	}
 
+	// Add two keys, page through them without a total count (total=false, in
+	// any case) and with a cached one, remove the keys.
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAddFindallTotalModes() {
+
+		Map<String, String> params = new HashMap<>();
+		params.put("userId", "$in:" + uid + "," + uid + "_3");
+		params.put("clientId", "Test_Client_ID");
+		params.put("total", "false");
+
+		try {
+			controller.addKey(testKey);
+			controller.addKey(testKey3);
+		} catch (MissingRequiredParameterException e1) {
+			fail("Missing required parameters exception; user ID and client ID should not have been null or empty.");
+			e1.printStackTrace();
+		} catch (AddFailureException e) {
+			fail("Unknown error in add method.");
+			e.printStackTrace();
+		}
+
+		try {
+			// Exactly a page's worth: the extra row isn't there, so no next page.
+			params.put("size", "2");
+			Slice<Key> resultsSlice = controller.findAllSlice(params);
+			assertFalse(resultsSlice instanceof Page);
+			assertEquals(2, resultsSlice.getContent().size());
+			assertTrue(resultsSlice.getContent().contains(testKey));
+			assertTrue(resultsSlice.getContent().contains(testKey3));
+			assertFalse(resultsSlice.hasNext());
+
+			params.put("size", "1");
+			params.put("total", "FALSE");
+			resultsSlice = controller.findAllSlice(params);
+			assertFalse(resultsSlice instanceof Page);
+			assertEquals(1, resultsSlice.getContent().size());
+			assertTrue(resultsSlice.hasNext());
+
+			params.put("page", "1");
+			resultsSlice = controller.findAllSlice(params);
+			assertEquals(1, resultsSlice.getContent().size());
+			assertFalse(resultsSlice.hasNext());
+
+			params.put("total", "cached");
+			Page<Key> resultsPage = controller.findAll(params);
+			assertEquals(2, resultsPage.getTotalElements());
+			assertEquals(1, resultsPage.getContent().size());
+			resultsSlice = controller.findAllSlice(params);
+			assertEquals(2, ((Page<Key>) resultsSlice).getTotalElements());
+		} catch (BadParameterException e) {
+			fail("Bad parameters exception");
+			e.printStackTrace();
+		}
+
+		// Clean-up
+		controller.delete(testKey.getUserId(), testKey.getClientId());
+		controller.delete(testKey3.getUserId(), testKey3.getClientId());
+
+		List<Key> results = controller.findAll();
+		assertFalse(results.contains(testKey));
+		assertFalse(results.contains(testKey3));
+
+	}
+
 	// Add three keys, see the projected fields correctly in find all results,
 	// remove the keys.
 	// TODO Not working with the new scopes change, need to fix
@@ -1004,7 +1229,7 @@ public class KeyControllerTest {
 	 * 
 	 * // Prepare the paging/sorting/filtering/projection parameters. Map<String,
 	 * String> params = new HashMap<>(); params.put("sortBy", "clientId");
-	 * params.put("sortOrder", "ASC"); params.put("clientId", "Test_Client_ID*");
+	 * params.put("sortOrder", "ASC"); params.put("clientId", "*Test_Client_ID*");
 	 * params.put("fields", "userId,clientId");
 	 * 
 	 * // Add the test keys. try { controller.addKey(testKey);
@@ -0,0 +1,77 @@
+package apikeystore.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import apikeystore.clock.ManualEpochClock;
+import apikeystore.clock.Now;
+import apikeystore.clock.SystemEpochClock;
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+
+public class JwtCacheTest {
+
+	private ManualEpochClock clock = new ManualEpochClock(1500000000L);
+
+	private JwtCache cache = new JwtCache();
+
+	@Before
+	public void setUp() {
+		Now.use(clock);
+		ReflectionTestUtils.setField(cache, "config", new YAMLConfig());
+	}
+
+	@After
+	public void tearDown() {
+		Now.use(SystemEpochClock.INSTANCE);
+	}
+
+	private Key key() {
+		return new Key(new OAuth2AccessToken("user", null), new OAuth2RefreshToken("user"), "user", "client", -1,
+				null);
+	}
+
+	// A cached JWT is only served for the version of the key it was built from.
+	@Test
+	public void testVersioning() {
+		Key key = key();
+		cache.put(key, "jwt", cache.stamp());
+		assertEquals("jwt", cache.get(key));
+		assertEquals("jwt", cache.get(new Key(key.getAuthToken(), key.getRefToken(), "user", "client",
+				key.getCreated(), null)));
+
+		// Rewritten a second later (new modified time).
+		clock.advance(1);
+		assertNull(cache.get(new Key(key)));
+
+		// Access token expired (the expired flag is a claim).
+		clock.advance(86400);
+		assertNull(cache.get(key));
+	}
+
+	// Writes and removals drop the entry, and a JWT built from a key read before
+	// a write isn't cached.
+	@Test
+	public void testInvalidation() {
+		Key key = key();
+		cache.put(key, "jwt", cache.stamp());
+		cache.keySaved(key);
+		assertNull(cache.get(key));
+
+		long stamp = cache.stamp();
+		cache.keyRemoved(key);
+		cache.put(key, "stale", stamp);
+		assertNull(cache.get(key));
+
+		cache.put(key, "jwt", cache.stamp());
+		cache.keysCleared();
+		assertNull(cache.get(key));
+	}
+}
@@ -0,0 +1,66 @@
+package apikeystore.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+
+import apikeystore.config.YAMLConfig;
+
+public class JwtCodecTest {
+
+	private JwtCodec codec(String signingKey) {
+		YAMLConfig config = new YAMLConfig();
+		config.setJwtSigningKey(signingKey);
+		JwtCodec codec = new JwtCodec();
+		ReflectionTestUtils.setField(codec, "config", config);
+		codec.init();
+		return codec;
+	}
+
+	// Tokens signed by the codec should verify, as should tokens signed with the
+	// raw key bytes as the controller used to.
+	@Test
+	public void testRoundTrip() {
+		JwtCodec codec = codec("Test signing key é");
+		assertEquals("user", codec.parse(codec.builder().setId("user").claim("clientId", "client").compact()).getId());
+
+		String legacy = Jwts.builder().setId("user")
+				.signWith(SignatureAlgorithm.HS256, "Test signing key é".getBytes(StandardCharsets.UTF_8))
+				.compact();
+		assertEquals("user", codec.parse(legacy).getId());
+	}
+
+	@Test(expected = SignatureException.class)
+	public void testKeyMismatch() {
+		codec("Other key").parse(codec("Test signing key").builder().setId("user").compact());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMissingKey() {
+		codec(null);
+	}
+
+	// Verification checks the signature and ID, but not the (fixed, past)
+	// expiration the key JWTs carry.
+	@Test
+	public void testVerify() {
+		JwtCodec codec = codec("Test signing key");
+		String jwt = codec.builder().setId("user").setExpiration(Date.from(Instant.ofEpochSecond(1600000000)))
+				.compact();
+		assertTrue(codec.verify(jwt, "user"));
+		assertFalse(codec.verify(jwt, "other"));
+		assertFalse(codec("Other key").verify(jwt, "user"));
+		assertFalse(codec.verify("not.a.jwt", "user"));
+	}
+}
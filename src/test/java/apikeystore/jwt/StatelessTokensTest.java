@@ -0,0 +1,102 @@
+package apikeystore.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import apikeystore.clock.ManualEpochClock;
+import apikeystore.clock.Now;
+import apikeystore.clock.SystemEpochClock;
+import apikeystore.config.YAMLConfig;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+import apikeystore.model.Resource;
+
+public class StatelessTokensTest {
+
+	private ManualEpochClock clock = new ManualEpochClock(1500000000L);
+
+	private YAMLConfig config = new YAMLConfig();
+
+	private StatelessTokens tokens = new StatelessTokens();
+
+	@Before
+	public void setUp() {
+		Now.use(clock);
+		config.setJwtSigningKey("Test signing key");
+		config.setStatelessTokensEnabled(true);
+
+		JwtCodec codec = new JwtCodec();
+		ReflectionTestUtils.setField(codec, "config", config);
+		codec.init();
+		RevocationList revocations = new RevocationList();
+		ReflectionTestUtils.setField(revocations, "config", config);
+
+		ReflectionTestUtils.setField(tokens, "config", config);
+		ReflectionTestUtils.setField(tokens, "jwtCodec", codec);
+		ReflectionTestUtils.setField(tokens, "revocations", revocations);
+
+		// Tokens issued in the second the list was created count as revoked.
+		clock.advance(1);
+	}
+
+	@After
+	public void tearDown() {
+		Now.use(SystemEpochClock.INSTANCE);
+	}
+
+	private Key key(OAuth2AccessToken token) {
+		return new Key(token, new OAuth2RefreshToken("user"), "user", "client", -1, null);
+	}
+
+	// A stateless token is valid until it expires.
+	@Test
+	public void testLifetime() {
+		OAuth2AccessToken token = tokens.issue("user", "client",
+				new HashSet<>(Collections.singleton(new Resource("/api", Collections.singleton("GET")))));
+		assertEquals(Now.seconds() + 86400, token.getExpiration());
+		assertTrue(tokens.isValid(token.getValue()));
+
+		clock.advance(86400);
+		assertTrue(tokens.isValid(token.getValue()));
+		clock.advance(1);
+		assertFalse(tokens.isValid(token.getValue()));
+	}
+
+	// Removing (or replacing, or refreshing) the key revokes its token; dropping
+	// every key revokes every token issued so far.
+	@Test
+	public void testRevocation() {
+		OAuth2AccessToken token = tokens.issue("user", "client", null);
+		OAuth2AccessToken other = tokens.issue("other", "client", null);
+		tokens.keyRemoved(key(token));
+		assertFalse(tokens.isValid(token.getValue()));
+		assertTrue(tokens.isValid(other.getValue()));
+
+		tokens.keysCleared();
+		assertFalse(tokens.isValid(other.getValue()));
+		clock.advance(1);
+		assertTrue(tokens.isValid(tokens.issue("user", "client", null).getValue()));
+	}
+
+	// Opaque tokens (and tampered ones) are never valid locally.
+	@Test
+	public void testOpaque() {
+		assertFalse(tokens.isValid(new OAuth2AccessToken("user", null).getValue()));
+		String value = tokens.issue("user", "client", null).getValue();
+		assertFalse(tokens.isValid(value.substring(0, value.length() - 2)));
+
+		config.setStatelessTokensEnabled(false);
+		assertFalse(tokens.issue("user", "client", null).getValue().contains("."));
+		assertFalse(tokens.isValid(value));
+	}
+}
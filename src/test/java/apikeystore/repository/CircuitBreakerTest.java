@@ -0,0 +1,74 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private long now = 0;
+
+	private CircuitBreaker breaker = new CircuitBreaker(3, 1000, () -> now);
+
+	// Opens after the threshold of consecutive failures, and lets one trial call
+	// through once the open period is over.
+	@Test
+	public void testOpenAndRecover() {
+		breaker.failure();
+		breaker.failure();
+		breaker.success();
+		breaker.failure();
+		breaker.failure();
+		assertTrue(breaker.allow());
+		breaker.failure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertFalse(breaker.allow());
+
+		now += 1000;
+		assertTrue(breaker.allow());
+		assertFalse(breaker.allow());
+		breaker.success();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		assertTrue(breaker.allow());
+		assertEquals(1, breaker.opened());
+	}
+
+	// A failed trial call opens the circuit again straight away.
+	@Test
+	public void testFailedTrial() {
+		for (int i = 0; i < 3; ++i) {
+			breaker.failure();
+		}
+		now += 1000;
+		assertTrue(breaker.allow());
+		breaker.failure();
+		assertFalse(breaker.allow());
+		now += 999;
+		assertFalse(breaker.allow());
+		now += 1;
+		assertTrue(breaker.allow());
+		assertEquals(2, breaker.opened());
+	}
+
+	// A released trial call lets the next call through as the trial, without
+	// counting as a failure.
+	@Test
+	public void testReleasedTrial() {
+		for (int i = 0; i < 3; ++i) {
+			breaker.failure();
+		}
+		now += 1000;
+		assertTrue(breaker.allow());
+		assertFalse(breaker.allow());
+		breaker.release();
+		assertTrue(breaker.allow());
+		breaker.success();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		assertEquals(1, breaker.opened());
+
+		breaker.release();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+}
@@ -0,0 +1,70 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class FieldProjectionTest {
+
+	// Field parameters should map onto document paths, ignoring unknown names.
+	@Test
+	public void testCompile() {
+		DBObject fields = FieldProjection.compile("userId,agencyCode,authTokenValue,bogus").getFields();
+		assertEquals(3, fields.keySet().size());
+		assertTrue(fields.containsField("userId"));
+		assertTrue(fields.containsField("attributes.agencyCode"));
+		assertTrue(fields.containsField("authToken.value"));
+	}
+
+	// Unknown names alone should fetch nothing but the ID (which is stripped),
+	// rather than the whole document.
+	@Test
+	public void testCompileNothingKnown() {
+		FieldProjection projection = FieldProjection.compile("bogus");
+		DBObject fields = projection.getFields();
+		assertEquals(1, fields.keySet().size());
+		assertTrue(fields.containsField("_id"));
+
+		DBObject row = new BasicDBObject("_id", "Test_User_ID__Test_Client_ID").append("userIdLower", "test_user_id");
+		projection.complete(row);
+		assertTrue(row.keySet().isEmpty());
+	}
+
+	// A whole sub-document should take precedence over its fields.
+	@Test
+	public void testCompileWholeToken() {
+		DBObject fields = FieldProjection.compile("authToken,authTokenValue,authTokenExpired").getFields();
+		assertEquals(1, fields.keySet().size());
+		assertTrue(fields.containsField("authToken"));
+	}
+
+	// The expired flag should be computed from an expiration that is then
+	// dropped, unless it was asked for.
+	@Test
+	public void testCompleteExpired() {
+		long now = new Date().getTime() / 1000;
+		FieldProjection projection = FieldProjection.compile("userId,authTokenExpired,refTokenExpired");
+		assertTrue(projection.getFields().containsField("authToken.expiration"));
+
+		DBObject row = new BasicDBObject("_id", "Test_User_ID:Test_Client_ID").append("userId", "Test_User_ID")
+				.append("authToken", new BasicDBObject("expiration", now - 10))
+				.append("refToken", new BasicDBObject("expiration", now + 3600));
+		projection.complete(row);
+
+		assertNull(row.get("_id"));
+		DBObject authToken = (DBObject) row.get("authToken");
+		DBObject refToken = (DBObject) row.get("refToken");
+		assertEquals(true, authToken.get("expired"));
+		assertEquals(false, refToken.get("expired"));
+		assertFalse(authToken.containsField("expiration"));
+		assertFalse(refToken.containsField("expiration"));
+	}
+}
@@ -0,0 +1,101 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import apikeystore.model.QKey;
+
+public class FilterPlanTest {
+
+	private QKey key = QKey.key;
+
+	// Parameters using the same operator should share a compiled step, whatever
+	// their values; a different operator is a different step.
+	@Test
+	public void testStepCached() {
+		FilterPlan.Step step = FilterPlan.step("created", "$gt:1500000000");
+		assertSame(step, FilterPlan.step("created", "$gt:1600000000"));
+		assertNotSame(step, FilterPlan.step("created", "$lt:1600000000"));
+		assertNotSame(step, FilterPlan.step("modified", "$gt:1500000000"));
+
+		step = FilterPlan.step("attributesAgencyCode", "$in:A,B");
+		assertSame(step, FilterPlan.step("attributesAgencyCode", "$in:C"));
+		assertNotSame(step, FilterPlan.step("attributesAgencyCode", "A"));
+
+		assertNull(FilterPlan.step("size", "10"));
+	}
+
+	// Each request's values should be bound into the plan's predicate.
+	@Test
+	public void testBuild() {
+		Map<String, String> params = new HashMap<>();
+		params.put("userId", "Test_User_ID");
+		params.put("created", "$gt:1500000000");
+		params.put("attributesAgencyCode", "$in:A,B");
+		params.put("page", "0");
+
+		assertEquals(key.userId.eq("Test_User_ID")
+				.and(key.created.gt(1500000000L)
+						.and(key.attributes.containsKey("agencyCode").and(key.attributes.get("agencyCode").eq("B"))
+								.or(key.attributes.containsKey("agencyCode")
+										.and(key.attributes.get("agencyCode").eq("A"))))),
+				FilterPlan.build(params));
+
+		params.put("userId", "Test_User_ID_2");
+		params.put("created", "$gt:1600000000");
+		params.remove("attributesAgencyCode");
+		assertEquals(key.userId.eq("Test_User_ID_2").and(key.created.gt(1600000000L)), FilterPlan.build(params));
+	}
+
+	// A trailing wildcard should be an anchored prefix search on the lower-cased
+	// shadow field (or the field itself for token values); wildcards on both ends
+	// a substring search.
+	@Test
+	public void testWildcards() {
+		Map<String, String> params = new HashMap<>();
+		params.put("userId", "Test_User*");
+		assertEquals(key.userIdLower.startsWith("test_user"), FilterPlan.build(params));
+
+		params.put("userId", "*User*");
+		assertEquals(key.userId.containsIgnoreCase("User"), FilterPlan.build(params));
+
+		params.clear();
+		params.put("authTokenValue", "AbC*");
+		assertEquals(key.authToken.value.startsWith("AbC"), FilterPlan.build(params));
+
+		params.clear();
+		params.put("agencyCode", "Sample*");
+		assertEquals(key.attributes.containsKey("agencyCode")
+				.and(key.attributesLower.get("agencyCode").startsWith("sample")), FilterPlan.build(params));
+	}
+
+	// The predicate shouldn't depend on the order of the request parameters.
+	@Test
+	public void testParameterOrder() {
+		Map<String, String> params = new LinkedHashMap<>();
+		params.put("userId", "Test_User_ID");
+		params.put("attributesB", "b");
+		params.put("attributesA", "a");
+		Map<String, String> reversed = new LinkedHashMap<>();
+		reversed.put("attributesA", "a");
+		reversed.put("attributesB", "b");
+		reversed.put("userId", "Test_User_ID");
+		assertEquals(FilterPlan.build(params), FilterPlan.build(reversed));
+	}
+
+	// No filtering parameters, no predicate.
+	@Test
+	public void testNoFilters() {
+		Map<String, String> params = new HashMap<>();
+		params.put("page", "0");
+		assertNull(FilterPlan.build(params));
+	}
+}
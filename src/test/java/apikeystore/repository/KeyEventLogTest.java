@@ -0,0 +1,144 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+
+public class KeyEventLogTest {
+
+	// Event IDs as generated by two instances: the other instance's sort below
+	// ours, although its events were appended later.
+	private final ObjectId marker = new ObjectId(new Date(), 0xFFFFFF, (short) 1, 1);
+	private final ObjectId ours = new ObjectId(new Date(), 0xFFFFFF, (short) 1, 2);
+	private final ObjectId theirs1 = new ObjectId(new Date(), 1, (short) 2, 1);
+	private final ObjectId theirs2 = new ObjectId(new Date(), 1, (short) 2, 2);
+
+	private DBObject event(ObjectId id) {
+		return new BasicDBObject("_id", id);
+	}
+
+	private List<DBObject> read(KeyEventLog.Position position, ObjectId... ids) {
+		List<DBObject> applied = new ArrayList<>();
+		for (ObjectId id : ids) {
+			applied.addAll(position.read(event(id)));
+		}
+		return applied;
+	}
+
+	private List<Object> ids(List<DBObject> events) {
+		List<Object> ids = new ArrayList<>();
+		for (DBObject event : events) {
+			ids.add(event.get("_id"));
+		}
+		return ids;
+	}
+
+	// Events after the start marker are applied in insertion order, whatever
+	// their IDs, and a reopened cursor skips the ones already read.
+	@Test
+	public void testPosition() {
+		KeyEventLog.Position position = new KeyEventLog.Position(marker);
+		position.reopened();
+		assertEquals(Arrays.asList(ours, theirs1), ids(read(position, marker, ours, theirs1)));
+		assertEquals(0, position.caughtUp().size());
+
+		position.reopened();
+		assertEquals(Arrays.asList(theirs2), ids(read(position, marker, ours, theirs1, theirs2)));
+	}
+
+	// If the last event read has been overwritten, the events skipped looking for
+	// it are applied once the cursor catches up.
+	@Test
+	public void testPositionOverwritten() {
+		KeyEventLog.Position position = new KeyEventLog.Position(ours);
+		position.reopened();
+		assertEquals(0, read(position, theirs1, theirs2).size());
+		assertEquals(Arrays.asList(theirs1, theirs2), ids(position.caughtUp()));
+
+		position.reopened();
+		assertEquals(0, read(position, theirs1, theirs2).size());
+		assertEquals(0, position.caughtUp().size());
+	}
+
+	// Remote events are replayed to the local listeners.
+	@Test
+	public void testApply() {
+		List<String> calls = new ArrayList<>();
+		KeyChangeListener listener = new KeyChangeListener() {
+			@Override
+			public void keySaved(Key key) {
+				calls.add("saved " + key.getId() + " " + key.getAuthToken().getValue());
+			}
+
+			@Override
+			public void keyRemoved(Key key) {
+				calls.add("removed " + key.getId());
+			}
+
+			@Override
+			public void keysRemoved(List<Key> keys) {
+				for (Key key : keys) {
+					calls.add("removed " + key.getId() + " " + key.getAuthToken().getValue());
+				}
+			}
+
+			@Override
+			public void keysPossiblyRemoved(List<Key> keys) {
+				for (Key key : keys) {
+					calls.add("possibly removed " + key.getId());
+				}
+			}
+
+			@Override
+			public void keysCleared() {
+				calls.add("cleared");
+			}
+		};
+
+		// Keys are read by hand, so no database (or converter) is needed.
+		KeyEventLog log = new KeyEventLog() {
+			@Override
+			Key toKey(DBObject doc) {
+				Key key = new Key();
+				ReflectionTestUtils.setField(key, "id", doc.get("_id"));
+				DBObject authToken = (DBObject) doc.get("authToken");
+				key.setAuthToken(new OAuth2AccessToken((String) authToken.get("value"),
+						(Long) authToken.get("expiration"), null));
+				return key;
+			}
+		};
+		ReflectionTestUtils.setField(log, "listeners", Collections.singletonList(listener));
+
+		BasicDBList keys = new BasicDBList();
+		keys.add(new BasicDBObject("_id", "u__c").append("authToken",
+				new BasicDBObject("value", "token").append("expiration", 0L)));
+		log.apply(new BasicDBObject("_id", theirs1).append("type", "saved").append("time", new Date())
+				.append("keys", keys));
+		log.apply(new BasicDBObject("_id", theirs2).append("type", "removed").append("time", new Date())
+				.append("keys", keys));
+		log.apply(new BasicDBObject("_id", new ObjectId()).append("type", "possiblyRemoved")
+				.append("time", new Date()).append("keys", keys));
+		log.apply(new BasicDBObject("_id", new ObjectId()).append("type", "cleared").append("time", new Date())
+				.append("keys", new BasicDBList()));
+
+		assertEquals(Arrays.asList("saved u__c token", "removed u__c token", "possibly removed u__c", "cleared"),
+				calls);
+		assertTrue(log.stats().get("applied") == 4L);
+	}
+}
@@ -0,0 +1,198 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import apikeystore.cache.TokenCache;
+import apikeystore.clock.ManualEpochClock;
+import apikeystore.clock.Now;
+import apikeystore.clock.SystemEpochClock;
+import apikeystore.config.YAMLConfig;
+import apikeystore.exception.RepositoryUnavailableException;
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.OAuth2RefreshToken;
+
+public class KeyLookupTest {
+
+	private enum Fault {
+		NONE, SLOW, ERROR, BUG
+	}
+
+	private ManualEpochClock clock = new ManualEpochClock(1500000000L);
+
+	private Key key;
+
+	// Repository stand-in: findByAuthTokenValue answers with the test key, stalls,
+	// fails, or hits a bug, as set.
+	private volatile Fault fault = Fault.NONE;
+	private AtomicInteger calls = new AtomicInteger();
+
+	private YAMLConfig config = new YAMLConfig();
+	private TokenCache tokenCache = new TokenCache();
+	private KeyLookup lookup = new KeyLookup();
+
+	@Before
+	public void setUp() {
+		Now.use(clock);
+		key = new Key(new OAuth2AccessToken("user", null), new OAuth2RefreshToken("user"), "user", "client", -1,
+				null);
+
+		KeyRepository repository = (KeyRepository) Proxy.newProxyInstance(KeyRepository.class.getClassLoader(),
+				new Class<?>[] { KeyRepository.class }, (proxy, method, args) -> {
+					if (method.getName().equals("toString")) {
+						return "fault-injecting KeyRepository";
+					} else if (!method.getName().equals("findByAuthTokenValue")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					calls.incrementAndGet();
+					switch (fault) {
+					case SLOW:
+						Thread.sleep(1000);
+						return key;
+					case ERROR:
+						throw new DataAccessResourceFailureException("Injected failure");
+					case BUG:
+						throw new IllegalStateException("Injected bug");
+					default:
+						return key.getAuthToken().getValue().equals(args[0]) ? key : null;
+					}
+				});
+
+		config.setLookupTimeoutMillis(100);
+		config.setLookupFailureThreshold(3);
+		config.setLookupOpenMillis(200);
+		config.setTokenCacheRevalidateSeconds(60);
+		config.setTokenCacheGraceSeconds(300);
+
+		ReflectionTestUtils.setField(tokenCache, "config", config);
+		tokenCache.init();
+		ReflectionTestUtils.setField(lookup, "config", config);
+		ReflectionTestUtils.setField(lookup, "tokenCache", tokenCache);
+		ReflectionTestUtils.setField(lookup, "keyRepository", repository);
+		lookup.init();
+	}
+
+	@After
+	public void tearDown() {
+		lookup.stop();
+		Now.use(SystemEpochClock.INSTANCE);
+	}
+
+	private void assertUnavailable() {
+		try {
+			lookup.findByAuthTokenValue(key.getAuthToken().getValue());
+			fail("Lookup should have been refused.");
+		} catch (RepositoryUnavailableException e) {
+			// Expected.
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); ++i) {
+			Thread.sleep(20);
+		}
+	}
+
+	// Stalled lookups time out; after enough of them the circuit opens and
+	// lookups are refused without reaching the repository, until a trial lookup
+	// succeeds.
+	@Test
+	public void testTimeoutsOpenCircuit() throws InterruptedException {
+		assertEquals(key, lookup.findByAuthTokenValue(key.getAuthToken().getValue()));
+
+		fault = Fault.SLOW;
+		for (int i = 0; i < 3; ++i) {
+			long start = System.currentTimeMillis();
+			assertUnavailable();
+			assertTrue(System.currentTimeMillis() - start < 900);
+		}
+		assertUnavailable();
+		assertEquals(4, calls.get());
+
+		fault = Fault.NONE;
+		Thread.sleep(250);
+		assertEquals(key, lookup.findByAuthTokenValue(key.getAuthToken().getValue()));
+		assertNull(lookup.findByAuthTokenValue("unknown"));
+		assertEquals(Long.valueOf(1), lookup.stats().get("circuitOpened"));
+	}
+
+	// A stale cache entry keeps being served through the grace period while the
+	// repository is failing, and is fresh again once a revalidation succeeds.
+	@Test
+	public void testStaleWhileRevalidate() throws InterruptedException {
+		String authValue = key.getAuthToken().getValue();
+		tokenCache.put(key, tokenCache.stamp());
+		assertNotNull(tokenCache.get(authValue));
+
+		clock.advance(61);
+		assertNull(tokenCache.get(authValue));
+		assertNotNull(tokenCache.getStale(authValue));
+
+		fault = Fault.ERROR;
+		lookup.revalidate(authValue);
+		await(() -> calls.get() == 1);
+		Thread.sleep(50);
+		assertNotNull(tokenCache.getStale(authValue));
+
+		fault = Fault.NONE;
+		lookup.revalidate(authValue);
+		await(() -> tokenCache.get(authValue) != null);
+		assertNotNull(tokenCache.get(authValue));
+
+		// Past the grace period without a successful revalidation.
+		fault = Fault.ERROR;
+		clock.advance(361);
+		assertNull(tokenCache.getStale(authValue));
+		assertNull(tokenCache.get(authValue));
+	}
+
+	// Errors that aren't the database's are passed on as they are, and neither
+	// open the circuit nor use up its trial lookup.
+	@Test
+	public void testBugsDontOpenCircuit() throws InterruptedException {
+		fault = Fault.BUG;
+		for (int i = 0; i < 5; ++i) {
+			try {
+				lookup.findByAuthTokenValue(key.getAuthToken().getValue());
+				fail("Lookup should have failed.");
+			} catch (IllegalStateException e) {
+				// Expected.
+			}
+		}
+		assertEquals(Long.valueOf(0), lookup.stats().get("circuitOpen"));
+		assertEquals(Long.valueOf(0), lookup.stats().get("failures"));
+
+		fault = Fault.ERROR;
+		for (int i = 0; i < 3; ++i) {
+			assertUnavailable();
+		}
+		assertEquals(Long.valueOf(1), lookup.stats().get("circuitOpen"));
+
+		// The trial lookup hits the bug; the next one is the trial instead.
+		Thread.sleep(250);
+		fault = Fault.BUG;
+		try {
+			lookup.findByAuthTokenValue(key.getAuthToken().getValue());
+			fail("Lookup should have failed.");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+		fault = Fault.NONE;
+		assertEquals(key, lookup.findByAuthTokenValue(key.getAuthToken().getValue()));
+		assertEquals(Long.valueOf(0), lookup.stats().get("circuitOpen"));
+	}
+}
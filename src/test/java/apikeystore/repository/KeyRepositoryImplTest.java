@@ -169,4 +169,155 @@ public class KeyRepositoryImplTest {
 		result = keyRepository.findByRefTokenValue(rtVal);
 		assertNull(result);
 	}
+
+	@Test
+	public void testUpsertKey() {
+		// Insert through upsert, then replace it with new tokens.
+		Key stored = keyRepository.upsertKey(testKey);
+		assertEquals(stored, testKey);
+
+		OAuth2AccessToken acc2 = new OAuth2AccessToken(atVal + "_2", now, scopes);
+		OAuth2RefreshToken ref2 = new OAuth2RefreshToken(rtVal + "_2", now);
+		Key replacement = new Key(acc2, ref2, uid, cid, now + 100, atts);
+		stored = keyRepository.upsertKey(replacement);
+
+		// Created timestamp should be kept from the original key.
+		Key result = keyRepository.findById(uid + "__" + cid);
+		assertNotNull(result);
+		assertEquals(result, replacement);
+		assertEquals(testKey.getCreated(), result.getCreated());
+		assertEquals(testKey.getCreated(), stored.getCreated());
+
+		// The old access token value should no longer be found.
+		assertNull(keyRepository.findByAuthTokenValue(atVal));
+
+		keyRepository.removeKey(result);
+		assertNull(keyRepository.findById(uid + "__" + cid));
+	}
+
+	@Test
+	public void testRemoveReplacedKey() {
+		keyRepository.saveKey(testKey);
+		Key replacement = new Key(new OAuth2AccessToken(atVal + "_2", now, scopes),
+				new OAuth2RefreshToken(rtVal + "_2", now), uid, cid, -1, atts);
+		keyRepository.upsertKey(replacement);
+
+		// Removing through a copy read before the replacement leaves the
+		// replacement in place.
+		keyRepository.removeKey(testKey);
+		assertNotNull(keyRepository.findById(uid + "__" + cid));
+
+		keyRepository.removeKey(replacement);
+		assertNull(keyRepository.findById(uid + "__" + cid));
+	}
+
+	@Test
+	public void testUpsertKeys() {
+		keyRepository.saveKey(testKey);
+
+		// One replacement and one new key, in one bulk write.
+		Key replacement = new Key(new OAuth2AccessToken(atVal + "_2", now, scopes),
+				new OAuth2RefreshToken(rtVal + "_2", now), uid, cid, now + 100, atts);
+		Key added = new Key(new OAuth2AccessToken(atVal + "_3", now, scopes),
+				new OAuth2RefreshToken(rtVal + "_3", now), uid + "2", cid, -1, atts);
+		List<Key> stored = keyRepository.upsertKeys(Arrays.asList(replacement, added));
+
+		assertEquals(2, stored.size());
+		assertEquals(testKey.getCreated(), stored.get(0).getCreated());
+		assertEquals(testKey.getCreated(), keyRepository.findById(uid + "__" + cid).getCreated());
+		assertNull(keyRepository.findByAuthTokenValue(atVal));
+		assertEquals(added, keyRepository.findById(added.getId()));
+
+		keyRepository.removeKey(stored.get(0));
+		keyRepository.removeKey(stored.get(1));
+		assertNull(keyRepository.findById(uid + "__" + cid));
+		assertNull(keyRepository.findById(added.getId()));
+	}
+
+	@Test
+	public void testRotateTokens() {
+		keyRepository.saveKey(testKey);
+
+		OAuth2AccessToken newAcc = new OAuth2AccessToken(uid, scopes);
+		OAuth2RefreshToken newRef = new OAuth2RefreshToken(uid);
+
+		// First rotation with the current refresh token succeeds.
+		Key rotated = keyRepository.rotateTokens(testKey, newAcc, newRef);
+		assertNotNull(rotated);
+		assertEquals(newAcc.getValue(), rotated.getAuthToken().getValue());
+		assertEquals(newRef.getValue(), rotated.getRefToken().getValue());
+		assertEquals(testKey.getCreated(), rotated.getCreated());
+
+		// A second rotation based on the same (now stale) refresh token fails.
+		assertNull(keyRepository.rotateTokens(testKey, new OAuth2AccessToken(uid, scopes),
+				new OAuth2RefreshToken(uid)));
+		assertNull(keyRepository.findByRefTokenValue(rtVal));
+
+		keyRepository.removeKey(rotated);
+		assertNull(keyRepository.findById(uid + "__" + cid));
+	}
+
+	@Test
+	public void testDeleteAllByUserId() {
+		Key otherClientKey = new Key(acc, ref, uid, cid + "_2", -1, atts);
+		keyRepository.saveKey(testKey);
+		keyRepository.saveKey(otherClientKey);
+		keyRepository.saveKey(testKey2);
+
+		// Both keys for the user are removed in one call, the other user's key stays.
+		assertEquals(2, keyRepository.deleteAllByUserId(uid));
+		assertNull(keyRepository.findById(testKey.getId()));
+		assertNull(keyRepository.findById(otherClientKey.getId()));
+		assertNotNull(keyRepository.findById(testKey2.getId()));
+
+		assertEquals(0, keyRepository.deleteAllByUserId(uid));
+
+		keyRepository.removeKey(testKey2);
+	}
+
+	@Test
+	public void testDeleteExpired() {
+		Key deadKey = new Key(new OAuth2AccessToken(atVal + "_Dead", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Dead", now - 100), uid + "_Dead", cid, -1, atts);
+		Key liveKey = new Key(new OAuth2AccessToken(atVal + "_Live", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Live", now + 1000), uid + "_Live", cid, -1, atts);
+		keyRepository.saveKey(deadKey);
+		keyRepository.saveKey(liveKey);
+
+		// Only the key with both tokens expired is purged.
+		assertTrue(keyRepository.deleteExpired(now, 1000) >= 1);
+		assertNull(keyRepository.findById(deadKey.getId()));
+		assertNotNull(keyRepository.findById(liveKey.getId()));
+
+		keyRepository.removeKey(liveKey);
+	}
+
+	@Test
+	public void testDeleteExpiredList() {
+		Key deadKey = new Key(new OAuth2AccessToken(atVal + "_Dead", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Dead", now - 100), uid + "_Dead", cid, -1, atts);
+		Key deadKey2 = new Key(new OAuth2AccessToken(atVal + "_Dead2", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Dead2", now - 100), uid + "_Dead2", cid, -1, atts);
+		Key liveKey = new Key(new OAuth2AccessToken(atVal + "_Live", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Live", now + 1000), uid + "_Live", cid, -1, atts);
+		Key replacedKey = new Key(new OAuth2AccessToken(atVal + "_Old", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_Old", now - 100), uid + "_Replaced", cid, -1, atts);
+		Key replacement = new Key(new OAuth2AccessToken(atVal + "_New", now - 100, scopes),
+				new OAuth2RefreshToken(rtVal + "_New", now - 100), uid + "_Replaced", cid, -1, atts);
+		keyRepository.saveKey(deadKey);
+		keyRepository.saveKey(deadKey2);
+		keyRepository.saveKey(liveKey);
+		keyRepository.saveKey(replacement);
+
+		// Only the passed keys still expired and unchanged are purged together; the
+		// replaced key is left for a later lookup or sweep.
+		assertEquals(2, keyRepository.deleteExpired(Arrays.asList(deadKey, deadKey2, liveKey, replacedKey), now));
+		assertNull(keyRepository.findById(deadKey.getId()));
+		assertNull(keyRepository.findById(deadKey2.getId()));
+		assertNotNull(keyRepository.findById(liveKey.getId()));
+		assertNotNull(keyRepository.findById(replacement.getId()));
+
+		keyRepository.removeKey(liveKey);
+		keyRepository.removeKey(replacement);
+	}
 }
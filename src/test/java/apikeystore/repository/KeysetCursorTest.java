@@ -0,0 +1,83 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class KeysetCursorTest {
+
+	private Sort sort = KeysetCursor.withTieBreak(new Sort(Direction.DESC, "clientId", "authToken.expiration"));
+
+	// A cursor should carry the sort key values of the row it was built from.
+	@Test
+	public void testEncodeDecode() {
+		DBObject row = new BasicDBObject("_id", "Test_User_ID:Test_Client_ID").append("clientId", "Test_Client_ID")
+				.append("authToken", new BasicDBObject("expiration", 1500000000L));
+
+		List<Object> values = KeysetCursor.decode(KeysetCursor.encode(row, sort), sort);
+		assertEquals("Test_Client_ID", values.get(0));
+		assertEquals(1500000000L, ((Number) values.get(1)).longValue());
+		assertEquals("Test_User_ID:Test_Client_ID", values.get(2));
+	}
+
+	// Cursors built for a different sort, or not built at all, should be rejected.
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeMismatch() {
+		DBObject row = new BasicDBObject("_id", "Test_User_ID:Test_Client_ID");
+		KeysetCursor.decode(KeysetCursor.encode(row, KeysetCursor.withTieBreak(null)), sort);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeMalformed() {
+		KeysetCursor.decode("not a cursor!", sort);
+	}
+
+	// Cursors carrying documents or arrays would put operators into the seek
+	// query, so only scalars are accepted.
+	@Test
+	public void testDecodeNonScalar() {
+		String[] cursors = { "[\"Test_Client_ID\", {\"$gt\": \"\"}, \"Test_User_ID:Test_Client_ID\"]",
+				"[\"Test_Client_ID\", 1500000000, {\"$where\": \"sleep(1000)\"}]",
+				"[[\"Test_Client_ID\"], 1500000000, \"Test_User_ID:Test_Client_ID\"]",
+				"[\"Test_Client_ID\", {\"$regex\": \".*\"}, \"Test_User_ID:Test_Client_ID\"]" };
+		for (String json : cursors) {
+			String cursor = Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+			try {
+				KeysetCursor.decode(cursor, sort);
+				fail("Cursor should have been rejected: " + json);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+
+		String json = "[null, true, {\"$oid\": \"5a5e2d4b8c3f1a2b3c4d5e6f\"}]";
+		List<Object> values = KeysetCursor.decode(Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(json.getBytes(StandardCharsets.UTF_8)), sort);
+		assertEquals(new ObjectId("5a5e2d4b8c3f1a2b3c4d5e6f"), values.get(2));
+	}
+
+	// The seek query should have one branch per sort key.
+	@Test
+	public void testAfter() {
+		DBObject after = KeysetCursor.after(sort,
+				Arrays.<Object>asList("Test_Client_ID", 1500000000L, "Test_User_ID:Test_Client_ID"));
+		BasicDBList or = (BasicDBList) after.get("$or");
+		assertEquals(3, or.size());
+		assertEquals(new BasicDBObject("_id", new BasicDBObject("$gt", "Test_User_ID:Test_Client_ID")),
+				((BasicDBList) ((DBObject) or.get(2)).get("$and")).get(2));
+	}
+}
@@ -0,0 +1,147 @@
+package apikeystore.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import apikeystore.model.Key;
+import apikeystore.model.OAuth2AccessToken;
+import apikeystore.model.RevocationPage;
+
+public class RevocationFeedTest {
+
+	// The shared capped collection, kept in memory: holds the last four
+	// revocations.
+	private TreeMap<Long, DBObject> collection = new TreeMap<>();
+
+	private RevocationFeed feed = instance();
+
+	// An instance using the collection. Can be told to take a sequence number
+	// that another instance takes first, on its next insert.
+	private class Instance extends RevocationFeed {
+		boolean raced = false;
+
+		@Override
+		List<DBObject> after(long since, int limit) {
+			List<DBObject> docs = new ArrayList<>(collection.tailMap(since, false).values());
+			return docs.subList(0, Math.min(limit, docs.size()));
+		}
+
+		@Override
+		long[] bounds() {
+			return collection.isEmpty() ? new long[] { 0, 0 }
+					: new long[] { collection.firstKey(), collection.lastKey() };
+		}
+
+		@Override
+		int insert(List<DBObject> docs) {
+			if (raced) {
+				raced = false;
+				long taken = ((Number) docs.get(0).get("_id")).longValue();
+				collection.put(taken, new BasicDBObject("_id", taken).append("hash", "other"));
+			}
+			int inserted = 0;
+			for (DBObject doc : docs) {
+				long sequence = ((Number) doc.get("_id")).longValue();
+				if (collection.containsKey(sequence)) {
+					break;
+				}
+				collection.put(sequence, doc);
+				if (collection.size() > 4) {
+					collection.pollFirstEntry();
+				}
+				++inserted;
+			}
+			return inserted;
+		}
+	}
+
+	private Instance instance() {
+		return new Instance();
+	}
+
+	private Key key(String authValue) {
+		Key key = new Key();
+		key.setAuthToken(new OAuth2AccessToken(authValue, 0, null));
+		return key;
+	}
+
+	// Polling from the returned sequence number returns each revocation once, in
+	// order, a page at a time.
+	@Test
+	public void testPolling() {
+		RevocationPage page = feed.since("0", 10);
+		assertFalse(page.isReset());
+		String since = page.getSequence();
+
+		feed.keyRemoved(key("a"));
+		feed.keysRemoved(Arrays.asList(key("b"), key("c")));
+
+		page = feed.since(since, 2);
+		assertFalse(page.isReset());
+		assertTrue(page.isMore());
+		assertEquals(Arrays.asList(RevocationFeed.hash("a"), RevocationFeed.hash("b")), page.getRevoked());
+
+		page = feed.since(page.getSequence(), 2);
+		assertFalse(page.isMore());
+		assertEquals(Arrays.asList(RevocationFeed.hash("c")), page.getRevoked());
+
+		String last = page.getSequence();
+		page = feed.since(last, 2);
+		assertEquals(0, page.getRevoked().size());
+		assertEquals(last, page.getSequence());
+	}
+
+	// A poller that has fallen behind the collection, polls from before every key
+	// was removed, or has a cursor the collection doesn't know, is told to reset.
+	@Test
+	public void testReset() {
+		String since = feed.since("0", 10).getSequence();
+		feed.keyRemoved(key("a"));
+		String afterFirst = feed.since(since, 1).getSequence();
+		for (String authValue : new String[] { "b", "c", "d", "e" }) {
+			feed.keyRemoved(key(authValue));
+		}
+		assertTrue(feed.since(since, 10).isReset());
+		assertEquals(4, feed.since(afterFirst, 10).getRevoked().size());
+
+		String beforeClear = feed.since(afterFirst, 10).getSequence();
+		feed.keysCleared();
+		assertTrue(feed.since(beforeClear, 10).isReset());
+		RevocationPage page = feed.since(afterFirst, 10);
+		assertTrue(page.isReset());
+		assertFalse(feed.since(page.getSequence(), 10).isReset());
+
+		assertTrue(feed.since("1000", 10).isReset());
+		assertTrue(feed.since("not a cursor", 10).isReset());
+	}
+
+	// Instances share the numbering, so any of them can answer a cursor issued
+	// by another; revocations that lose their sequence numbers to another
+	// instance are renumbered.
+	@Test
+	public void testInstances() {
+		Instance other = instance();
+		String since = other.since("0", 10).getSequence();
+
+		feed.keyRemoved(key("a"));
+		other.raced = true;
+		other.keysRemoved(Arrays.asList(key("b"), key("c")));
+
+		RevocationPage page = feed.since(since, 10);
+		assertFalse(page.isReset());
+		assertEquals(Arrays.asList(RevocationFeed.hash("a"), "other", RevocationFeed.hash("b"),
+				RevocationFeed.hash("c")), page.getRevoked());
+		assertEquals(page.getRevoked(), other.since(since, 10).getRevoked());
+	}
+}